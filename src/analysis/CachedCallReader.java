@@ -0,0 +1,69 @@
+package analysis;
+
+/**
+ * Read one period of a CDR file from its binary cache, with the same records as MappedCallReader:
+ *      - records with '-' in field 4 are skipped
+ *      - records before startTime are skipped
+ *      - reading stops at the first record at or after maxTime
+ */
+public class CachedCallReader implements CallBatchReader {
+    // number of records in each batch
+    public static int batchSize = 1 << 16;
+
+    private final CallCache cache;
+    private final double startTime;
+    private final double maxTime;
+    // next record to read
+    private long position;
+    private boolean reachedMax = false;
+
+    /**
+     * @param cache     cache of the file
+     * @param from      first record to read, e.g. from CallCache.firstRecord
+     * @param startTime first hour to keep
+     * @param maxTime   hour to stop at
+     */
+    public CachedCallReader(CallCache cache, long from, double startTime, double maxTime) {
+        this.cache = cache;
+        this.position = from;
+        this.startTime = startTime;
+        this.maxTime = maxTime;
+    }
+
+    public CallBatch next() {
+        CallCache cache = this.cache;
+        long n = cache.records();
+        while (!this.reachedMax && this.position < n) {
+            CallBatch batch = new CallBatch(batchSize);
+            batch.setCache(cache);
+            while (this.position < n && batch.size < batchSize) {
+                long k = this.position++;
+                if (cache.negative(k)) {
+                    continue;
+                }
+                int hour = cache.hour(k);
+                if (hour >= this.maxTime) {
+                    this.reachedMax = true;
+                    batch.reachedMax = true;
+                    break;
+                }
+                if (hour >= this.startTime) {
+                    int s = cache.sender(k);
+                    int r = cache.receiver(k);
+                    batch.add(cache.id(s), cache.id(r), hour, s, r);
+                }
+            }
+            if (batch.size > 0 | batch.reachedMax) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    public boolean reachedMax() {
+        return this.reachedMax;
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,121 @@
+package analysis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A batch of parsed calls from one chunk of a CDR file, in file order,
+ *  already restricted to non-negative records inside [startTime, maxTime)
+ *
+ * Only primitives are kept per record, the names are recovered from the (mapped) chunk on request,
+ *  or from the dictionary of the binary cache when the batch is read from a CallCache.
+ */
+public class CallBatch {
+    // number of records in the batch
+    public int size;
+    // sender and receiver Long ID
+    public long[] sender;
+    public long[] receiver;
+    // hours since 060101|00:00:00
+    public int[] hour;
+    // whether the first record at or after maxTime is in this chunk, i.e., nothing after this batch is needed
+    public boolean reachedMax;
+
+    // chunk bytes and where each record starts in it
+    private ByteBuffer data;
+    private int[] lineStart;
+    // or cache and dictionary index of sender and receiver of each record
+    private CallCache cache;
+    private int[] senderRef;
+    private int[] receiverRef;
+
+    public CallBatch(int capacity) {
+        capacity = Math.max(capacity, 16);
+        this.sender = new long[capacity];
+        this.receiver = new long[capacity];
+        this.hour = new int[capacity];
+        this.lineStart = new int[capacity];
+    }
+
+    /**
+     * add one parsed record
+     *
+     * @param record the record
+     * @param start  start of the line in chunk bytes
+     */
+    void add(CallRecord record, int start) {
+        if (this.size == this.sender.length) {
+            int n = this.size * 2;
+            this.sender = Arrays.copyOf(this.sender, n);
+            this.receiver = Arrays.copyOf(this.receiver, n);
+            this.hour = Arrays.copyOf(this.hour, n);
+            this.lineStart = Arrays.copyOf(this.lineStart, n);
+        }
+        this.sender[this.size] = record.sender;
+        this.receiver[this.size] = record.receiver;
+        this.hour[this.size] = record.hour;
+        this.lineStart[this.size] = start;
+        this.size++;
+    }
+
+    /**
+     * add one record read from a binary cache
+     *
+     * @param sender      sender Long ID
+     * @param receiver    receiver Long ID
+     * @param hour        hours since 060101|00:00:00
+     * @param senderRef   sender in the dictionary of the cache
+     * @param receiverRef receiver in the dictionary of the cache
+     */
+    void add(long sender, long receiver, int hour, int senderRef, int receiverRef) {
+        if (this.size == this.sender.length) {
+            int n = this.size * 2;
+            this.sender = Arrays.copyOf(this.sender, n);
+            this.receiver = Arrays.copyOf(this.receiver, n);
+            this.hour = Arrays.copyOf(this.hour, n);
+            this.senderRef = Arrays.copyOf(this.senderRef, n);
+            this.receiverRef = Arrays.copyOf(this.receiverRef, n);
+        }
+        this.sender[this.size] = sender;
+        this.receiver[this.size] = receiver;
+        this.hour[this.size] = hour;
+        this.senderRef[this.size] = senderRef;
+        this.receiverRef[this.size] = receiverRef;
+        this.size++;
+    }
+
+    void setData(ByteBuffer data) {
+        this.data = data;
+    }
+
+    void setCache(CallCache cache) {
+        this.cache = cache;
+        this.senderRef = new int[this.sender.length];
+        this.receiverRef = new int[this.sender.length];
+        this.lineStart = null;
+    }
+
+    // sender of the i-th record with L/F/N replaced, e.g. "045485508"
+    public String senderName(int i) {
+        if (this.cache != null) {
+            return this.cache.name(this.senderRef[i]);
+        }
+        int start = this.lineStart[i];
+        return CallRecord.name(this.data, start, next(start));
+    }
+
+    // receiver of the i-th record with L/F/N replaced, e.g. "045485508"
+    public String receiverName(int i) {
+        if (this.cache != null) {
+            return this.cache.name(this.receiverRef[i]);
+        }
+        int start = next(this.lineStart[i]) + 1;
+        return CallRecord.name(this.data, start, next(start));
+    }
+
+    // helper function to find the next '|'
+    private int next(int from) {
+        while (this.data.get(from) != '|') from++;
+        return from;
+    }
+}
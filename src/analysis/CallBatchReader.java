@@ -0,0 +1,30 @@
+package analysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Source of CallBatch for one phone file and one period, either the text file (MappedCallReader)
+ *  or its binary cache (CachedCallReader)
+ *
+ * Usage:
+ *      CallBatch batch;
+ *      while ((batch = br.next()) != null) { for (int k = 0; k < batch.size; k++) ... }
+ *      br.close();
+ */
+public interface CallBatchReader extends Closeable {
+    /**
+     * Next batch of records
+     *
+     * @return batch in file order, null if the period is finished
+     * @throws IOException
+     * @throws ParseException
+     */
+    CallBatch next() throws IOException, ParseException;
+
+    /**
+     * @return whether the first record at or after maxTime has been seen
+     */
+    boolean reachedMax();
+}
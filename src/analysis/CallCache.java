@@ -0,0 +1,402 @@
+package analysis;
+
+import util.LongIntHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Binary columnar copy of a CDR file, written once and read through memory mapped buffers
+ *
+ * The cache is kept next to the data ([file].calls) and rebuilt if the length or modification time of the
+ *  data file changes. Layout (big endian):
+ *      header:     magic, version, length and lastModified of the data file,
+ *                  number of nodes, records (long) and days, whether dates are sorted, number of bytes of names
+ *      dictionary: long ID of each node, long end of each name, names with L/F/N replaced (ASCII)
+ *      day index:  dates in the form of 80901, long first record of each date
+ *      columns:    int sender, int receiver (as positions in the dictionary), int hour, byte negative
+ * Every non-empty line of the file is a record, in file order, including those with negative field 4.
+ * Sections are mapped in segments of 2^SEGMENT entries, so files of any number of records can be read.
+ *
+ * Usage:
+ *      CallCache cache = CallCache.get(file);
+ *      CallBatchReader br = new CachedCallReader(cache, cache.firstRecord(80901), startTime, maxTime);
+ *
+ * To convert files ahead of time:
+ *      java analysis.CallCache 0809-Call.pai.sordate.txt 0810-Call.pai.sordate.txt ...
+ */
+public class CallCache {
+    public static String suffix = ".calls";
+    private static final int MAGIC = 0x43445243;
+    private static final int VERSION = 2;
+    private static final int HEADER = 4 + 4 + 8 + 8 + 4 + 8 + 4 + 4 + 8;
+    // entries in each mapped segment of a section
+    private static final int SEGMENT = 27;
+    private static final long MASK = (1L << SEGMENT) - 1;
+    // caches already opened
+    private static final HashMap<String, CallCache> loaded = new HashMap<String, CallCache>();
+
+    private final String file;
+    private long length;
+    private long lastModified;
+    private int nNodes;
+    private long nRecords;
+    private boolean sorted;
+
+    // dictionary
+    private ByteBuffer[] ids;
+    private ByteBuffer[] nameEnd;
+    private ByteBuffer[] names;
+    // day index
+    private int[] dates;
+    private long[] firstRecords;
+    // columns
+    private IntBuffer[] sender;
+    private IntBuffer[] receiver;
+    private IntBuffer[] hour;
+    private ByteBuffer[] negative;
+
+    private CallCache(String file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the cache of a file, converting the file first if there is no cache or it is out of date
+     *
+     * @param file CDR file name
+     * @return the cache
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static synchronized CallCache get(String file) throws IOException, ParseException {
+        CallCache cache = loaded.get(file);
+        if (cache != null && cache.isCurrent()) {
+            return cache;
+        }
+        cache = open(file);
+        if (cache == null) {
+            convert(file, file + suffix);
+            cache = open(file);
+            if (cache == null) {
+                throw new IOException("Cache of " + file + " could not be read back");
+            }
+        }
+        loaded.put(file, cache);
+        return cache;
+    }
+
+    // number of records
+    public long records() {
+        return this.nRecords;
+    }
+
+    // number of nodes in the dictionary
+    public int nodes() {
+        return this.nNodes;
+    }
+
+    /**
+     * First record with date on or after the given date
+     *
+     * @param date in the form of 80901
+     * @return position of the record, 0 if the file is not sorted, number of records if no such record
+     */
+    public long firstRecord(int date) {
+        if (!this.sorted) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(this.dates, date);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < this.dates.length ? this.firstRecords[i] : this.nRecords;
+    }
+
+    // sender of the k-th record, as position in the dictionary
+    public int sender(long k) {
+        return this.sender[(int) (k >>> SEGMENT)].get((int) (k & MASK));
+    }
+
+    // receiver of the k-th record, as position in the dictionary
+    public int receiver(long k) {
+        return this.receiver[(int) (k >>> SEGMENT)].get((int) (k & MASK));
+    }
+
+    // hours since 060101|00:00:00 of the k-th record
+    public int hour(long k) {
+        return this.hour[(int) (k >>> SEGMENT)].get((int) (k & MASK));
+    }
+
+    // whether field 4 of the k-th record starts with '-'
+    public boolean negative(long k) {
+        return this.negative[(int) (k >>> SEGMENT)].get((int) (k & MASK)) != 0;
+    }
+
+    // Long ID of a node in the dictionary
+    public long id(int ref) {
+        return this.ids[ref >>> SEGMENT].getLong((int) (ref & MASK) * 8);
+    }
+
+    // ID with L/F/N replaced of a node in the dictionary, e.g. "045485508"
+    public String name(int ref) {
+        long start = ref == 0 ? 0 : nameEnd(ref - 1);
+        long end = nameEnd(ref);
+        char[] c = new char[(int) (end - start)];
+        for (long i = start; i < end; i++) {
+            c[(int) (i - start)] = (char) (this.names[(int) (i >>> SEGMENT)].get((int) (i & MASK)) & 0xff);
+        }
+        return new String(c);
+    }
+
+    // helper function to get the end of a name in the names section
+    private long nameEnd(int ref) {
+        return this.nameEnd[ref >>> SEGMENT].getLong((int) (ref & MASK) * 8);
+    }
+
+    // whether the data file is unchanged since the cache was written
+    private boolean isCurrent() {
+        File f = new File(this.file);
+        return f.length() == this.length && f.lastModified() == this.lastModified;
+    }
+
+    /**
+     * Convert a CDR file into the binary format
+     *
+     * @param file   CDR file name
+     * @param output cache file name
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static void convert(String file, String output) throws IOException, ParseException {
+        File source = new File(file);
+        long length = source.length();
+        long lastModified = source.lastModified();
+
+        LongIntHashMap dict = new LongIntHashMap(1 << 16);
+        long[] ids = new long[1024];
+        ArrayList<String> names = new ArrayList<String>();
+        long nameBytes = 0;
+        ArrayList<Integer> dates = new ArrayList<Integer>();
+        ArrayList<Long> firstRecords = new ArrayList<Long>();
+        boolean sorted = true;
+        int last = Integer.MIN_VALUE;
+        long n = 0;
+
+        // columns go to temporary files first, as the number of records is not known yet
+        String[] columns = {output + ".sender", output + ".receiver", output + ".hour", output + ".negative"};
+        DataOutputStream[] out = new DataOutputStream[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            out[c] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(columns[c]), 1 << 16));
+        }
+        CallRecordReader br = new CallRecordReader(file);
+        CallRecord record = br.record;
+        while (br.next()) {
+            int s = dict.get(record.sender);
+            if (s < 0) {
+                s = names.size();
+                dict.put(record.sender, s);
+                if (s == ids.length) ids = Arrays.copyOf(ids, s * 2);
+                ids[s] = record.sender;
+                names.add(record.senderName());
+                nameBytes += names.get(s).length();
+            }
+            int r = dict.get(record.receiver);
+            if (r < 0) {
+                r = names.size();
+                dict.put(record.receiver, r);
+                if (r == ids.length) ids = Arrays.copyOf(ids, r * 2);
+                ids[r] = record.receiver;
+                names.add(record.receiverName());
+                nameBytes += names.get(r).length();
+            }
+            if (record.date < last) {
+                sorted = false;
+            } else if (record.date > last) {
+                dates.add(record.date);
+                firstRecords.add(n);
+                last = record.date;
+            }
+            out[0].writeInt(s);
+            out[1].writeInt(r);
+            out[2].writeInt(record.hour);
+            out[3].writeByte(record.negative ? 1 : 0);
+            n++;
+        }
+        br.close();
+        for (int c = 0; c < columns.length; c++) {
+            out[c].close();
+        }
+
+        // header, dictionary and day index, then append the columns
+        DataOutputStream head = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16));
+        head.writeInt(MAGIC);
+        head.writeInt(VERSION);
+        head.writeLong(length);
+        head.writeLong(lastModified);
+        head.writeInt(names.size());
+        head.writeLong(n);
+        head.writeInt(dates.size());
+        head.writeInt(sorted ? 1 : 0);
+        head.writeLong(nameBytes);
+        for (int i = 0; i < names.size(); i++) {
+            head.writeLong(ids[i]);
+        }
+        long end = 0;
+        for (int i = 0; i < names.size(); i++) {
+            end += names.get(i).length();
+            head.writeLong(end);
+        }
+        for (int i = 0; i < names.size(); i++) {
+            head.writeBytes(names.get(i));
+        }
+        for (int i = 0; i < dates.size(); i++) {
+            head.writeInt(dates.get(i));
+        }
+        for (int i = 0; i < dates.size(); i++) {
+            head.writeLong(firstRecords.get(i));
+        }
+        head.close();
+
+        FileChannel target = new FileOutputStream(output, true).getChannel();
+        for (int c = 0; c < columns.length; c++) {
+            FileChannel column = new FileInputStream(columns[c]).getChannel();
+            long pos = 0;
+            long size = column.size();
+            while (pos < size) {
+                pos += column.transferTo(pos, size - pos, target);
+            }
+            column.close();
+            new File(columns[c]).delete();
+        }
+        target.close();
+        System.out.println("Cached " + n + " records of " + names.size() + " nodes from " + file);
+    }
+
+    /**
+     * Open the cache of a file and map its sections
+     *
+     * @param file CDR file name
+     * @return the cache, or null if there is no cache or it is out of date
+     * @throws IOException
+     */
+    private static CallCache open(String file) throws IOException {
+        File f = new File(file + suffix);
+        if (!f.exists() || f.length() < HEADER) {
+            return null;
+        }
+        CallCache cache = new CallCache(file);
+        File source = new File(file);
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        int nDays;
+        long nameBytes;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            cache.length = in.readLong();
+            cache.lastModified = in.readLong();
+            if (cache.length != source.length() || cache.lastModified != source.lastModified()) {
+                return null;
+            }
+            cache.nNodes = in.readInt();
+            cache.nRecords = in.readLong();
+            nDays = in.readInt();
+            cache.sorted = in.readInt() != 0;
+            nameBytes = in.readLong();
+        } finally {
+            in.close();
+        }
+
+        long n = cache.nRecords;
+        long pos = HEADER;
+        long dayPos = pos + cache.nNodes * 16L + nameBytes;
+        long columnPos = dayPos + nDays * 12L;
+        if (f.length() != columnPos + n * 13) {
+            // incomplete file, e.g. conversion interrupted
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            cache.ids = map(channel, pos, cache.nNodes, 8);
+            pos += cache.nNodes * 8L;
+            cache.nameEnd = map(channel, pos, cache.nNodes, 8);
+            pos += cache.nNodes * 8L;
+            cache.names = map(channel, pos, nameBytes, 1);
+
+            ByteBuffer days = channel.map(FileChannel.MapMode.READ_ONLY, dayPos, nDays * 12L);
+            cache.dates = new int[nDays];
+            cache.firstRecords = new long[nDays];
+            days.asIntBuffer().get(cache.dates);
+            days.position(nDays * 4);
+            days.slice().asLongBuffer().get(cache.firstRecords);
+
+            pos = columnPos;
+            cache.sender = ints(map(channel, pos, n, 4));
+            pos += n * 4;
+            cache.receiver = ints(map(channel, pos, n, 4));
+            pos += n * 4;
+            cache.hour = ints(map(channel, pos, n, 4));
+            pos += n * 4;
+            cache.negative = map(channel, pos, n, 1);
+        } finally {
+            // mapped buffers stay valid after the channel is closed
+            raf.close();
+        }
+        return cache;
+    }
+
+    /**
+     * Map a section of the file in segments of 2^SEGMENT entries
+     *
+     * @param channel the file
+     * @param pos     start of the section
+     * @param n       number of entries
+     * @param width   bytes of each entry
+     * @return the segments
+     * @throws IOException
+     */
+    private static ByteBuffer[] map(FileChannel channel, long pos, long n, int width) throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[(int) ((n + MASK) >>> SEGMENT)];
+        for (int i = 0; i < segments.length; i++) {
+            long entries = Math.min(n - ((long) i << SEGMENT), 1L << SEGMENT);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos + ((long) i << SEGMENT) * width, entries * width);
+        }
+        return segments;
+    }
+
+    // helper function to view mapped segments as ints
+    private static IntBuffer[] ints(ByteBuffer[] segments) {
+        IntBuffer[] ints = new IntBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            ints[i] = segments[i].asIntBuffer();
+        }
+        return ints;
+    }
+
+    /**
+     * Convert CDR files into the binary format, next to the files
+     *
+     * @param args file names
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        for (String file : args) {
+            convert(file, file + suffix);
+        }
+    }
+}
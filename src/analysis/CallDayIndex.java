@@ -0,0 +1,224 @@
+package analysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Index of a date-sorted CDR file: byte offset of the first line of each day
+ *
+ * The index is kept in a small text file next to the data ([file].dayidx), built on first use and reused as long as
+ *  the length and modification time of the data file do not change:
+ *      length,lastModified,sorted
+ *      80901,0
+ *      80902,1234567
+ *      ...
+ * If the dates in the file are not sorted, the index is marked as such and the whole file is read.
+ */
+public class CallDayIndex {
+    public static String suffix = ".dayidx";
+    // indices already loaded
+    private static final HashMap<String, CallDayIndex> loaded = new HashMap<String, CallDayIndex>();
+
+    private final String file;
+    private final long length;
+    private final long lastModified;
+    // whether dates are non-decreasing through the file
+    private boolean sorted = true;
+    // dates in the form of 80901 and where they start
+    private int[] dates = new int[0];
+    private long[] offsets = new long[0];
+
+    private CallDayIndex(String file) {
+        File f = new File(file);
+        this.file = file;
+        this.length = f.length();
+        this.lastModified = f.lastModified();
+    }
+
+    /**
+     * Get the index of a file, read from or build into the sidecar file if needed
+     *
+     * @param file CDR file name
+     * @return the index
+     * @throws IOException
+     */
+    public static synchronized CallDayIndex get(String file) throws IOException {
+        CallDayIndex index = loaded.get(file);
+        if (index != null && index.isCurrent()) {
+            return index;
+        }
+        index = read(file);
+        if (index == null) {
+            index = build(file);
+            try {
+                index.write(file + suffix);
+            } catch (IOException e) {
+                System.out.println("Day index of " + file + " kept in memory only: " + e.getMessage());
+            }
+        }
+        loaded.put(file, index);
+        return index;
+    }
+
+    /**
+     * Byte offset of the first line with date on or after the given date
+     *
+     * @param date in the form of 80901
+     * @return offset, 0 if the file is not sorted, file length if no such line
+     */
+    public long offset(int date) {
+        if (!this.sorted) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(this.dates, date);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < this.dates.length ? this.offsets[i] : this.length;
+    }
+
+    /**
+     * Byte offset to stop reading for a period ending before the given date
+     *
+     * @param date in the form of 80901
+     * @return offset, file length if the file is not sorted
+     */
+    public long endOffset(int date) {
+        return this.sorted ? offset(date) : this.length;
+    }
+
+    public boolean isSorted() {
+        return this.sorted;
+    }
+
+    // whether the data file is unchanged since the index was built
+    private boolean isCurrent() {
+        File f = new File(this.file);
+        return f.length() == this.length && f.lastModified() == this.lastModified;
+    }
+
+    /**
+     * Scan the file once and record the first line of each date
+     *
+     * @param file CDR file name
+     * @return the index
+     * @throws IOException
+     */
+    public static CallDayIndex build(String file) throws IOException {
+        CallDayIndex index = new CallDayIndex(file);
+        ArrayList<Integer> dates = new ArrayList<Integer>();
+        ArrayList<Long> offsets = new ArrayList<Long>();
+
+        InputStream in = new FileInputStream(file);
+        byte[] buf = new byte[1 << 20];
+        long lineStart = 0;
+        long pos = 0;
+        // state of the current line: number of '|' seen and the date so far
+        int bars = 0;
+        int date = 0;
+        int last = Integer.MIN_VALUE;
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            for (int i = 0; i < n; i++, pos++) {
+                byte b = buf[i];
+                if (b == '\n') {
+                    if (bars >= 3) {
+                        if (date < last) {
+                            index.sorted = false;
+                        } else if (date > last) {
+                            dates.add(date);
+                            offsets.add(lineStart);
+                            last = date;
+                        }
+                    }
+                    lineStart = pos + 1;
+                    bars = 0;
+                    date = 0;
+                } else if (b == '|') {
+                    bars++;
+                } else if (bars == 2 && b >= '0' && b <= '9') {
+                    date = date * 10 + (b - '0');
+                }
+            }
+        }
+        in.close();
+        // last line without line break
+        if (bars >= 3) {
+            if (date < last) {
+                index.sorted = false;
+            } else if (date > last) {
+                dates.add(date);
+                offsets.add(lineStart);
+            }
+        }
+
+        index.dates = new int[dates.size()];
+        index.offsets = new long[offsets.size()];
+        for (int i = 0; i < index.dates.length; i++) {
+            index.dates[i] = dates.get(i);
+            index.offsets[i] = offsets.get(i);
+        }
+        return index;
+    }
+
+    /**
+     * Write the index to a text file
+     *
+     * @param path output file
+     * @throws IOException
+     */
+    public void write(String path) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(path));
+        bw.write(this.length + "," + this.lastModified + "," + this.sorted + "\n");
+        for (int i = 0; i < this.dates.length; i++) {
+            bw.write(this.dates[i] + "," + this.offsets[i] + "\n");
+        }
+        bw.close();
+    }
+
+    /**
+     * Read the sidecar index of a file
+     *
+     * @param file CDR file name
+     * @return the index, or null if there is no index or it is out of date
+     * @throws IOException
+     */
+    private static CallDayIndex read(String file) throws IOException {
+        File idx = new File(file + suffix);
+        if (!idx.exists()) {
+            return null;
+        }
+        CallDayIndex index = new CallDayIndex(file);
+        BufferedReader br = new BufferedReader(new FileReader(idx));
+        String line = br.readLine();
+        String[] field = line == null ? new String[0] : line.split(",");
+        if (field.length != 3 || Long.parseLong(field[0]) != index.length
+                || Long.parseLong(field[1]) != index.lastModified) {
+            br.close();
+            return null;
+        }
+        index.sorted = Boolean.parseBoolean(field[2]);
+        ArrayList<String> lines = new ArrayList<String>();
+        while ((line = br.readLine()) != null) {
+            lines.add(line);
+        }
+        br.close();
+        index.dates = new int[lines.size()];
+        index.offsets = new long[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            field = lines.get(i).split(",");
+            index.dates[i] = Integer.parseInt(field[0]);
+            index.offsets[i] = Long.parseLong(field[1]);
+        }
+        return index;
+    }
+}
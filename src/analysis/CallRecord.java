@@ -0,0 +1,201 @@
+package analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * One parsed line of a CDR / MM file, decoded in place from the line buffer
+ *
+ * each lines look like: "L45485508|L10822145|080703|09:40:55|20|170|172"
+ * each block: 0-sender, 1-receiver, 2-date, 3-time, 4-duration (or amount), ...
+ *
+ * The same instance is reused for every line, so nothing is allocated per record unless
+ *  the names of the nodes are asked for (e.g. when a new node is put into dictionary).
+ * Lines are read with absolute gets from a ByteBuffer, so a mapped chunk of a file is parsed where it is.
+ */
+public class CallRecord {
+    // sender and receiver ID, with L/F/N replaced by 0/1/2, as Long.parseLong would give
+    public long sender;
+    public long receiver;
+    // date in the form of 80703 (08-07-03), as Integer.parseInt(field[2]) would give
+    public int date;
+    // hours since 060101|00:00:00, as GlobalHelper.parseTime would give
+    public int hour;
+    // whether field 4 starts with '-'
+    public boolean negative;
+
+    // buffer and positions of the first two fields, kept to recover the strings if needed
+    private ByteBuffer buf;
+    // the last byte array parsed, wrapped once
+    private ByteBuffer wrapped;
+    private int senderStart, senderEnd, receiverStart, receiverEnd;
+    // positions of the first five '|'
+    private final int[] bar = new int[5];
+
+    /**
+     * Parse one line
+     *
+     * @param buf   buffer holding the line
+     * @param start first byte of the line
+     * @param end   end of the line (exclusive, without line break)
+     * @return false if the line is empty
+     * @throws ParseException
+     */
+    public boolean parse(byte[] buf, int start, int end) throws ParseException {
+        if (this.wrapped == null || this.wrapped.array() != buf) {
+            this.wrapped = ByteBuffer.wrap(buf);
+        }
+        return parse(this.wrapped, start, end);
+    }
+
+    /**
+     * Parse one line, e.g. of a mapped chunk of a file
+     *
+     * @param buf   buffer holding the line, read with absolute positions
+     * @param start first byte of the line
+     * @param end   end of the line (exclusive, without line break)
+     * @return false if the line is empty
+     * @throws ParseException
+     */
+    public boolean parse(ByteBuffer buf, int start, int end) throws ParseException {
+        if (end > start && buf.get(end - 1) == '\r') end--;
+        if (end == start) return false;
+        this.buf = buf;
+
+        // find the first five fields
+        int[] bar = this.bar;
+        int nbar = 0;
+        for (int i = start; i < end && nbar < 5; i++) {
+            if (buf.get(i) == '|') bar[nbar++] = i;
+        }
+        if (nbar < 4) {
+            throw new ParseException(ascii(buf, start, end), 0);
+        }
+        int field4End = nbar == 5 ? bar[4] : end;
+
+        this.senderStart = start;
+        this.senderEnd = bar[0];
+        this.receiverStart = bar[0] + 1;
+        this.receiverEnd = bar[1];
+        this.negative = bar[3] + 1 < field4End && buf.get(bar[3] + 1) == '-';
+        this.sender = parseID(buf, this.senderStart, this.senderEnd);
+        this.receiver = parseID(buf, this.receiverStart, this.receiverEnd);
+        this.date = parseDigits(buf, bar[1] + 1, bar[2]);
+
+        // time is HH:mm:ss, anything else goes through SimpleDateFormat
+        int t = bar[2] + 1;
+        int hour = Integer.MIN_VALUE;
+        if (bar[3] - t == 8 && bar[2] - bar[1] - 1 == 6 && this.date >= 0
+                && buf.get(t + 2) == ':' && buf.get(t + 5) == ':') {
+            int hh = parseDigits(buf, t, t + 2);
+            int mm = parseDigits(buf, t + 3, t + 5);
+            int ss = parseDigits(buf, t + 6, t + 8);
+            if (hh >= 0 & mm >= 0 & mm < 60 & ss >= 0 & ss < 60) {
+                hour = GlobalHelper.parseHour(this.date, hh * 3600 + mm * 60 + ss);
+            }
+        }
+        if (hour == Integer.MIN_VALUE) {
+            hour = (int) GlobalHelper.parseTime(ascii(buf, bar[1] + 1, bar[3]));
+        }
+        this.hour = hour;
+        return true;
+    }
+
+    /**
+     * Parse one line given as String
+     *
+     * @param line line of the file
+     * @return false if the line is empty
+     * @throws ParseException
+     */
+    public boolean parse(String line) throws ParseException {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        return parse(bytes, 0, bytes.length);
+    }
+
+    // sender in the file, e.g. "L45485508"
+    public String rawSender() {
+        return ascii(this.buf, this.senderStart, this.senderEnd);
+    }
+
+    // receiver in the file, e.g. "L45485508"
+    public String rawReceiver() {
+        return ascii(this.buf, this.receiverStart, this.receiverEnd);
+    }
+
+    // sender with L/F/N replaced, e.g. "045485508"
+    public String senderName() {
+        return name(this.buf, this.senderStart, this.senderEnd);
+    }
+
+    // receiver with L/F/N replaced, e.g. "045485508"
+    public String receiverName() {
+        return name(this.buf, this.receiverStart, this.receiverEnd);
+    }
+
+    /**
+     * helper function to turn an ID into long, i.e., the same as
+     *  Long.parseLong(id.replace("L", "0").replace("F", "1").replace("N", "2"))
+     *
+     * @param buf   buffer
+     * @param start start of the ID
+     * @param end   end of the ID (exclusive)
+     * @return long ID
+     */
+    public static long parseID(ByteBuffer buf, int start, int end) {
+        // anything longer than 18 digits or not a digit is left to Long.parseLong
+        if (end - start > 18 | end == start) {
+            return Long.parseLong(name(buf, start, end));
+        }
+        long id = 0;
+        for (int i = start; i < end; i++) {
+            int d = digit(buf.get(i));
+            if (d < 0) {
+                return Long.parseLong(name(buf, start, end));
+            }
+            id = id * 10 + d;
+        }
+        return id;
+    }
+
+    // numerical value of a character in ID
+    private static int digit(byte b) {
+        if (b >= '0' & b <= '9') return b - '0';
+        if (b == 'L') return 0;
+        if (b == 'F') return 1;
+        if (b == 'N') return 2;
+        return -1;
+    }
+
+    // helper function to parse a short run of digits, -1 if not all digits
+    private static int parseDigits(ByteBuffer buf, int start, int end) {
+        if (end <= start | end - start > 9) return -1;
+        int x = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' | b > '9') return -1;
+            x = x * 10 + (b - '0');
+        }
+        return x;
+    }
+
+    // helper function to get ID string with L/F/N replaced
+    static String name(ByteBuffer buf, int start, int end) {
+        char[] c = new char[end - start];
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            c[i - start] = b == 'L' ? '0' : b == 'F' ? '1' : b == 'N' ? '2' : (char) (b & 0xff);
+        }
+        return new String(c);
+    }
+
+    // helper function to get part of the buffer as a string
+    private static String ascii(ByteBuffer buf, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buf.get(i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,93 @@
+package analysis;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+
+/**
+ * Read a CDR / MM file line by line into a reused CallRecord,
+ *  replacing BufferedReader.readLine + String.split + GlobalHelper.parseTime
+ *
+ * Usage:
+ *      CallRecordReader br = new CallRecordReader(file);
+ *      while (br.next()) { ... br.record.sender ... }
+ *      br.close();
+ */
+public class CallRecordReader implements Closeable {
+    // the current record
+    public final CallRecord record = new CallRecord();
+
+    private final InputStream in;
+    private byte[] buf = new byte[1 << 16];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    public CallRecordReader(String file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public CallRecordReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Move to the next non-empty line
+     *
+     * @return false if end of file is reached
+     * @throws IOException
+     * @throws ParseException
+     */
+    public boolean next() throws IOException, ParseException {
+        while (true) {
+            // find line break in what is already buffered
+            int end = -1;
+            for (int i = this.pos; i < this.limit; i++) {
+                if (this.buf[i] == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0 & !this.eof) {
+                fill();
+                continue;
+            }
+            if (end < 0) {
+                // last line without line break
+                if (this.pos == this.limit) return false;
+                end = this.limit;
+            }
+            int start = this.pos;
+            this.pos = Math.min(end + 1, this.limit);
+            if (this.record.parse(this.buf, start, end)) {
+                return true;
+            }
+        }
+    }
+
+    // helper function to move the unread bytes to the front and read more
+    private void fill() throws IOException {
+        int left = this.limit - this.pos;
+        if (this.pos == 0 & left == this.buf.length) {
+            byte[] larger = new byte[this.buf.length * 2];
+            System.arraycopy(this.buf, 0, larger, 0, left);
+            this.buf = larger;
+        } else {
+            System.arraycopy(this.buf, this.pos, this.buf, 0, left);
+        }
+        this.pos = 0;
+        this.limit = left;
+        int n = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+        if (n < 0) {
+            this.eof = true;
+        } else {
+            this.limit += n;
+        }
+    }
+
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
@@ -1,10 +1,9 @@
 package analysis;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
 
@@ -15,6 +14,62 @@ public class GlobalHelper {
     public static int absoluteStartingValue = 60928;
     public static String absoluteStartingValueString = "060928|00:00:00";
 
+    // local midnight of each yyMMdd in milliseconds since 060101|00:00:00, index: (yy * 12 + MM - 1) * 32 + dd - 1
+    // dd runs to 32 so that the length of day 31 is known as well
+    private static final long[] midnight = buildMidnight();
+    private static final long DAY = 24 * 3600 * 1000L;
+
+    /**
+     * helper function to build the day table used by parseHour,
+     * all days are resolved through the same SimpleDateFormat as parseTime, so two-digit years and time zone agree
+     *
+     * @return table of local midnight offsets
+     */
+    private static long[] buildMidnight() {
+        long[] table = new long[100 * 12 * 32];
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyMMdd|HH:mm:ss");
+            long time0 = format.parse("060101|00:00:00").getTime();
+            Calendar cal = (Calendar) format.getCalendar().clone();
+            for (int yy = 0; yy < 100; yy++) {
+                for (int mm = 1; mm <= 12; mm++) {
+                    cal.setTime(format.parse(String.format("%02d%02d01|00:00:00", yy, mm)));
+                    int year = cal.get(Calendar.YEAR);
+                    for (int dd = 1; dd <= 32; dd++) {
+                        cal.clear();
+                        cal.set(year, mm - 1, dd, 0, 0, 0);
+                        table[(yy * 12 + mm - 1) * 32 + dd - 1] = cal.getTimeInMillis() - time0;
+                    }
+                }
+            }
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+        return table;
+    }
+
+    /**
+     * helper function to compute the same hour index as parseTime from already decoded fields
+     *
+     * @param date   date in the form of 60101 (06-01-01)
+     * @param second second of the day, i.e. HH * 3600 + mm * 60 + ss
+     * @return hours since 060101|00:00:00, or Integer.MIN_VALUE if the day table can not be used
+     *         (invalid day, or a day with daylight saving change), in which case parseTime should be called
+     */
+    public static int parseHour(int date, int second) {
+        int yy = date / 10000;
+        int mm = date / 100 % 100;
+        int dd = date % 100;
+        if (yy > 99 | mm < 1 | mm > 12 | dd < 1 | dd > 31 | second < 0 | second >= 24 * 3600) {
+            return Integer.MIN_VALUE;
+        }
+        int index = (yy * 12 + mm - 1) * 32 + dd - 1;
+        if (midnight[index + 1] - midnight[index] != DAY) {
+            return Integer.MIN_VALUE;
+        }
+        return (int) ((midnight[index] + second * 1000L) / 1000 / 3600);
+    }
+
     /**
      * helper function to parse time
      *
@@ -114,17 +169,15 @@ public class GlobalHelper {
         // int lastIndex = 0;
         /** this is the start date: 06-09-28 **/
         int currentIndex = absoluteStartingValue;
-        String line;
-
-        BufferedReader br = new BufferedReader(new FileReader(file));
-        while ((line = br.readLine()) != null & currentIndex < enddate) {
-            String[] field = line.split("\\|");
-            if (field[4].charAt(0) != '-') {
-                String sender = field[0];
-                String receiver = field[1];
 
-                currentIndex = Integer.parseInt(field[2]);
+        CallRecordReader br = new CallRecordReader(file);
+        CallRecord record = br.record;
+        while (br.next() & currentIndex < enddate) {
+            if (!record.negative) {
+                currentIndex = record.date;
                 if (currentIndex >= startdate) {
+                    String sender = record.rawSender();
+                    String receiver = record.rawReceiver();
                     if (friendMap.get(sender) != null) {
                         friendMap.get(sender).add(receiver);
                     } else {
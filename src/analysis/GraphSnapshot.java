@@ -0,0 +1,269 @@
+package analysis;
+
+import data.GraphCSR;
+import data.NodeMotifwithColorNeighbour;
+import data.NodeTable;
+import util.LongIntHashMap;
+import util.SortedIntSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Snapshot of the organized graph of a period in one binary file, so that motif counting and model runs on the
+ *  same period can start from it instead of reading the MM and phone files again
+ *
+ * Layout (big-endian):
+ *      MAGIC, VERSION, size of the dictionary so far (allSize), number of nodes
+ *      NodeTable: label, y, t and frequencies of each ID
+ *      GraphCSR: send-only, receive-only, mutual and all neighbours, with call frequencies
+ *      source description, then ID, phone number, name and nList of each node in ascending ID
+ *      (strings as their length in UTF-8 bytes, -1 if null, and the bytes)
+ *
+ * On load the graph arrays are mapped from the file instead of read, and the dictionary and the nodes are rebuilt
+ *  with the lists organize() leaves, taken from the graph. nList is kept in the order it iterates in, so that
+ *  sums over the neighbours repeat to the last digit. A snapshot is only loaded if it was written from the same
+ *  source description (source): the data files with their lengths and times of change, the dates of the period
+ *  and the parameters of reading it.
+ *
+ * Usage:
+ *      String source = GraphSnapshot.source(mmfile, phonefile, phoneStart, phoneEnd, ...);
+ *      GraphSnapshot.write(path, source, fullData, graph);
+ *      GraphCSR graph = GraphSnapshot.load(path, source, fullData);
+ */
+public class GraphSnapshot {
+    public static String suffix = ".graph";
+    // "NMGS"
+    private static final int MAGIC = 0x4e4d4753;
+    private static final int VERSION = 3;
+    // bytes before the NodeTable
+    private static final int HEADER = 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Describe what the graph of a period is read from, to tell whether a snapshot can be loaded in its place
+     *
+     * @param mmfile     MM file
+     * @param phonefile  phone files
+     * @param parameters dates of the period and every parameter of reading it
+     * @return path, length and time of last change of each file, then the parameters
+     */
+    public static String source(String mmfile, String[] phonefile, Object... parameters) {
+        StringBuilder source = new StringBuilder(describe(mmfile));
+        for (String file : phonefile) {
+            source.append(" ").append(describe(file));
+        }
+        for (Object parameter : parameters) {
+            source.append(" ").append(parameter);
+        }
+        return source.toString();
+    }
+
+    // helper function to describe a data file by its path, length and time of last change
+    private static String describe(String path) {
+        File file = new File(path);
+        return path + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * Write the organized graph of a period
+     *
+     * @param path   output file, replaced only once the snapshot is complete
+     * @param source description of what the graph was read from
+     * @param data   the nodes and the dictionary, after organize()
+     * @param graph  graph of the same nodes
+     * @throws IOException
+     */
+    public static void write(String path, String source, NodeSampleWeekNeighbour data, GraphCSR graph) throws IOException {
+        NodeTable table = graph.table();
+        // phone number of each ID
+        long[] phone = new long[table.size()];
+        int nodes = 0;
+        LongIntHashMap.Cursor cursor = data.dict.cursor();
+        while (cursor.next()) {
+            if (table.contains(cursor.value())) {
+                phone[cursor.value()] = cursor.key();
+                nodes++;
+            }
+        }
+
+        File tmp = new File(path + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(data.allSize);
+            out.writeInt(nodes);
+            table.write(out);
+            graph.write(out);
+            writeString(out, source);
+            for (int id = 0; id < table.size(); id++) {
+                if (table.contains(id)) {
+                    out.writeInt(id);
+                    out.writeLong(phone[id]);
+                    writeString(out, data.name(id));
+                    Set<Integer> nList = data.allMotif.nodes.get(id).nList;
+                    out.writeInt(nList.size());
+                    for (int nei : nList) {
+                        out.writeInt(nei);
+                    }
+                }
+            }
+            out.close();
+            written = true;
+        } finally {
+            // no partial snapshot is left behind, and the error of writing is the one thrown
+            if (!written) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed
+                }
+                tmp.delete();
+            }
+        }
+        File file = new File(path);
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Cannot replace graph snapshot " + path);
+        }
+    }
+
+    /**
+     * Load a snapshot in place of reading a period, replacing the dictionary and the nodes
+     *
+     * @param path   snapshot file
+     * @param source description of what the graph is to be read from
+     * @param data   the dictionary and the nodes to replace
+     * @return the graph, mapped from the file, or null if there is no snapshot of the same version and source
+     * @throws IOException
+     */
+    public static GraphCSR load(String path, String source, NodeSampleWeekNeighbour data) throws IOException {
+        File file = new File(path);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            int allSize = in.readInt();
+            int nodes = in.readInt();
+            NodeTable table = new NodeTable(in);
+            long position = HEADER + table.bytes();
+            GraphCSR graph = GraphCSR.map(channel, position, table);
+
+            channel.position(position + graph.bytes());
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            if (!source.equals(readString(in))) {
+                return null;
+            }
+            data.dict.clear();
+            data.allMotif.nodes.clear();
+            data.names.clear();
+            data.mmUsers.clear();
+            for (int i = 0; i < nodes; i++) {
+                int id = in.readInt();
+                long phone = in.readLong();
+                String name = readString(in);
+                NodeMotifwithColorNeighbour node = node(graph, id, name);
+                for (int k = in.readInt(); k > 0; k--) {
+                    node.nList.add(in.readInt());
+                }
+                data.dict.put(phone, id);
+                data.keepName(id, name);
+                data.mmUsers.set(id, table.label[id] == 1);
+                data.allMotif.nodes.put(id, node);
+            }
+            data.allSize = allSize;
+            return graph;
+        } finally {
+            // the mappings stay valid after the file is closed
+            raf.close();
+        }
+    }
+
+    // helper function to write a string of any length, or null
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // helper function to read a string written by writeString
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Rebuild a node as organize() leaves it, but for nList
+     *
+     * @param graph the graph
+     * @param id    ID of the node
+     * @param name  name of the node
+     * @return the node
+     */
+    private static NodeMotifwithColorNeighbour node(GraphCSR graph, int id, String name) {
+        NodeTable table = graph.table();
+        NodeMotifwithColorNeighbour node = new NodeMotifwithColorNeighbour(name, id, table.t[id], table.y[id],
+                table.label[id]);
+        node.inFreq = table.inFreq[id];
+        node.outFreq = table.outFreq[id];
+        node.inFreqMM = table.inFreqMM[id];
+        node.outFreqMM = table.outFreqMM[id];
+
+        int row = graph.row(id);
+        node.sList = neighbours(graph, row, GraphCSR.SEND, -1);
+        node.rList = neighbours(graph, row, GraphCSR.RECEIVE, -1);
+        node.mList = neighbours(graph, row, GraphCSR.MUTUAL, -1);
+        // calls to and from MM users are the neighbours of label 1
+        node.sListMM = neighbours(graph, row, GraphCSR.SEND, 1);
+        node.rListMM = neighbours(graph, row, GraphCSR.RECEIVE, 1);
+        node.mListMM = neighbours(graph, row, GraphCSR.MUTUAL, 1);
+        node.nList = new HashSet<Integer>();
+        node.nListFreq = new HashMap<Integer, Integer>();
+        int[] all = graph.neighbours(row, GraphCSR.ALL);
+        int[] freqs = graph.freqs(row);
+        for (int k = 0; k < all.length; k++) {
+            node.nListFreq.put(graph.id(all[k]), freqs[k]);
+        }
+        // only outgoing calls to MM users are kept in nListMM
+        node.nListMM = new HashSet<Integer>(node.sListMM);
+        node.nListMM.addAll(node.mListMM);
+        return node;
+    }
+
+    // helper function to get the node IDs of the neighbours of a row with a label, or with any label if negative
+    private static SortedIntSet neighbours(GraphCSR graph, int row, int type, int label) {
+        int[] ids = label < 0 ? graph.neighbours(row, type) : graph.neighbours(row, type, label);
+        for (int k = 0; k < ids.length; k++) {
+            ids[k] = graph.id(ids[k]);
+        }
+        return SortedIntSet.of(ids);
+    }
+}
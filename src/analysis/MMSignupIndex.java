@@ -0,0 +1,268 @@
+package analysis;
+
+import util.LongIntHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Index of the MM file: every sender and the times of all the transfers they sent, built once and reused every period
+ *
+ * Senders are kept in the order of their first transfer in the file, which is the order streamMM adds them
+ *  into the dictionary. For each sender, the transfers are kept in file order, as positions among all the
+ *  non-negative records of the file, so that a period reading the file up to the first record at or after
+ *  maxTime can be replayed exactly.
+ *
+ * The index is kept in a binary file next to the data ([file].mmidx), built on first use and reused as long as
+ *  the length and modification time of the data file do not change.
+ */
+public class MMSignupIndex {
+    public static String suffix = ".mmidx";
+    private static final int VERSION = 1;
+    // indices already loaded
+    private static final HashMap<String, MMSignupIndex> loaded = new HashMap<String, MMSignupIndex>();
+
+    private final String file;
+    private final long length;
+    private final long lastModified;
+
+    // senders, in order of first transfer: Long ID, and ID with L/F/N replaced as in the first transfer
+    public long[] ids = new long[0];
+    public String[] names = new String[0];
+    // transfers of the i-th sender are seq[start[i]] to seq[start[i + 1] - 1], as positions in the file
+    public int[] start = new int[1];
+    public int[] seq = new int[0];
+    // hours of each record in the file, and the maximum hour up to each record
+    public int[] hour = new int[0];
+    private int[] maxHour = new int[0];
+
+    private MMSignupIndex(String file) {
+        File f = new File(file);
+        this.file = file;
+        this.length = f.length();
+        this.lastModified = f.lastModified();
+    }
+
+    /**
+     * Get the index of a MM file, read from or build into the sidecar file if needed
+     *
+     * @param file MM file name
+     * @return the index
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static synchronized MMSignupIndex get(String file) throws IOException, ParseException {
+        MMSignupIndex index = loaded.get(file);
+        if (index != null && index.isCurrent()) {
+            return index;
+        }
+        index = read(file);
+        if (index == null) {
+            index = build(file);
+            try {
+                index.write(file + suffix);
+            } catch (IOException e) {
+                System.out.println("MM index of " + file + " kept in memory only: " + e.getMessage());
+            }
+        }
+        loaded.put(file, index);
+        return index;
+    }
+
+    // number of senders
+    public int size() {
+        return this.ids.length;
+    }
+
+    // number of non-negative records
+    public int records() {
+        return this.hour.length;
+    }
+
+    /**
+     * Number of records read before stopping at maxTime, i.e., position of the first record at or after maxTime
+     *
+     * @param maxTime hour to stop at
+     * @return number of records
+     */
+    public int prefix(double maxTime) {
+        // maxHour is non-decreasing, find the first one >= maxTime
+        int lo = 0;
+        int hi = this.maxHour.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.maxHour[mid] < maxTime) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Number of transfers of a sender among the first records of the file
+     *
+     * @param i   sender in the index
+     * @param end number of records read
+     * @return number of transfers
+     */
+    public int count(int i, int end) {
+        int k = Arrays.binarySearch(this.seq, this.start[i], this.start[i + 1], end);
+        return (k < 0 ? -k - 1 : k) - this.start[i];
+    }
+
+    // hour of the k-th transfer of the i-th sender
+    public int hour(int i, int k) {
+        return this.hour[this.seq[this.start[i] + k]];
+    }
+
+    // whether the data file is unchanged since the index was built
+    private boolean isCurrent() {
+        File f = new File(this.file);
+        return f.length() == this.length && f.lastModified() == this.lastModified;
+    }
+
+    /**
+     * Read the MM file once and index all senders
+     *
+     * @param file MM file name
+     * @return the index
+     * @throws IOException
+     * @throws ParseException
+     */
+    public static MMSignupIndex build(String file) throws IOException, ParseException {
+        MMSignupIndex index = new MMSignupIndex(file);
+        LongIntHashMap senders = new LongIntHashMap(1 << 16);
+        long[] ids = new long[1024];
+        String[] names = new String[1024];
+        int nSender = 0;
+        // sender and hour of each record
+        int[] sender = new int[1 << 16];
+        int[] hour = new int[1 << 16];
+        int n = 0;
+
+        CallRecordReader br = new CallRecordReader(file);
+        CallRecord record = br.record;
+        while (br.next()) {
+            if (record.negative) {
+                continue;
+            }
+            int i = senders.get(record.sender);
+            if (i < 0) {
+                i = nSender++;
+                senders.put(record.sender, i);
+                if (i == ids.length) {
+                    ids = Arrays.copyOf(ids, i * 2);
+                    names = Arrays.copyOf(names, i * 2);
+                }
+                ids[i] = record.sender;
+                names[i] = record.senderName();
+            }
+            if (n == sender.length) {
+                sender = Arrays.copyOf(sender, n * 2);
+                hour = Arrays.copyOf(hour, n * 2);
+            }
+            sender[n] = i;
+            hour[n] = record.hour;
+            n++;
+        }
+        br.close();
+
+        index.ids = Arrays.copyOf(ids, nSender);
+        index.names = Arrays.copyOf(names, nSender);
+        index.hour = Arrays.copyOf(hour, n);
+        index.maxHour = new int[n];
+        // group records by sender, keeping file order
+        index.start = new int[nSender + 1];
+        for (int k = 0; k < n; k++) {
+            index.start[sender[k] + 1]++;
+            index.maxHour[k] = k == 0 ? hour[k] : Math.max(index.maxHour[k - 1], hour[k]);
+        }
+        for (int i = 0; i < nSender; i++) {
+            index.start[i + 1] += index.start[i];
+        }
+        int[] next = Arrays.copyOf(index.start, nSender);
+        index.seq = new int[n];
+        for (int k = 0; k < n; k++) {
+            index.seq[next[sender[k]]++] = k;
+        }
+        return index;
+    }
+
+    /**
+     * Write the index to a binary file
+     *
+     * @param path output file
+     * @throws IOException
+     */
+    public void write(String path) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.writeInt(VERSION);
+        out.writeLong(this.length);
+        out.writeLong(this.lastModified);
+        out.writeInt(this.ids.length);
+        out.writeInt(this.hour.length);
+        for (int i = 0; i < this.ids.length; i++) {
+            out.writeLong(this.ids[i]);
+            out.writeUTF(this.names[i]);
+            out.writeInt(this.start[i + 1]);
+        }
+        for (int k = 0; k < this.hour.length; k++) {
+            out.writeInt(this.seq[k]);
+            out.writeInt(this.hour[k]);
+        }
+        out.close();
+    }
+
+    /**
+     * Read the sidecar index of a file
+     *
+     * @param file MM file name
+     * @return the index, or null if there is no index or it is out of date
+     * @throws IOException
+     */
+    private static MMSignupIndex read(String file) throws IOException {
+        File idx = new File(file + suffix);
+        if (!idx.exists()) {
+            return null;
+        }
+        MMSignupIndex index = new MMSignupIndex(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idx), 1 << 16));
+        try {
+            if (in.readInt() != VERSION || in.readLong() != index.length || in.readLong() != index.lastModified) {
+                return null;
+            }
+            int nSender = in.readInt();
+            int n = in.readInt();
+            index.ids = new long[nSender];
+            index.names = new String[nSender];
+            index.start = new int[nSender + 1];
+            for (int i = 0; i < nSender; i++) {
+                index.ids[i] = in.readLong();
+                index.names[i] = in.readUTF();
+                index.start[i + 1] = in.readInt();
+            }
+            index.seq = new int[n];
+            index.hour = new int[n];
+            index.maxHour = new int[n];
+            for (int k = 0; k < n; k++) {
+                index.seq[k] = in.readInt();
+                index.hour[k] = in.readInt();
+                index.maxHour[k] = k == 0 ? index.hour[k] : Math.max(index.maxHour[k - 1], index.hour[k]);
+            }
+        } finally {
+            in.close();
+        }
+        return index;
+    }
+}
@@ -0,0 +1,274 @@
+package analysis;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Read one CDR file through memory mapped chunks, parsed by a pool of worker threads
+ *
+ * The file is cut into chunks at line breaks, each chunk is mapped and parsed in place by a worker into a CallBatch,
+ *  which keeps the mapping to recover the names of the nodes.
+ * Batches are handed back strictly in file order, so the caller sees exactly the same sequence of records
+ *  as reading the file line by line:
+ *      - records with '-' in field 4 are skipped
+ *      - records before startTime are skipped
+ *      - reading stops at the first record at or after maxTime
+ *
+ * A region [from, to) of the file can be given (e.g. from CallDayIndex), in that case lines before [from] are taken
+ *  as before startTime, and the first record from [to] on is checked to see whether maxTime is reached there.
+ *
+ * Usage:
+ *      MappedCallReader br = new MappedCallReader(file, startTime, maxTime, pool);
+ *      CallBatch batch;
+ *      while ((batch = br.next()) != null) { for (int k = 0; k < batch.size; k++) ... }
+ *      br.close();
+ */
+public class MappedCallReader implements CallBatchReader {
+    // default size of each chunk
+    public static int defaultChunkSize = 16 << 20;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final double startTime;
+    private final double maxTime;
+    private final ExecutorService pool;
+    private final int chunkSize;
+    // number of chunks parsed ahead of the caller
+    private final int ahead;
+    // end of the region to read, and of the file
+    private long end;
+    private final long fileSize;
+    // whether the line at the end of the region has been checked
+    private boolean probed = false;
+    // start of the next chunk to submit
+    private long position;
+    private boolean reachedMax = false;
+    private final ArrayDeque<Future<CallBatch>> pending = new ArrayDeque<Future<CallBatch>>();
+
+    /**
+     * Read the whole file
+     *
+     * @param file      file name
+     * @param startTime first hour to keep
+     * @param maxTime   hour to stop at
+     * @param pool      worker threads, null to parse in the calling thread
+     * @throws IOException
+     */
+    public MappedCallReader(String file, double startTime, double maxTime, ExecutorService pool) throws IOException {
+        this(file, 0, Long.MAX_VALUE, startTime, maxTime, pool, defaultChunkSize);
+    }
+
+    /**
+     * Read part of the file
+     *
+     * @param file      file name
+     * @param from      byte offset to start from, has to be the start of a line
+     * @param to        byte offset to stop at, at most file size
+     * @param startTime first hour to keep
+     * @param maxTime   hour to stop at
+     * @param pool      worker threads, null to parse in the calling thread
+     * @param chunkSize size of each chunk in bytes
+     * @throws IOException
+     */
+    public MappedCallReader(String file, long from, long to, double startTime, double maxTime,
+                            ExecutorService pool, int chunkSize) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        this.fileSize = this.channel.size();
+        this.end = Math.min(to, this.fileSize);
+        this.position = Math.max(from, 0);
+        this.startTime = startTime;
+        this.maxTime = maxTime;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.ahead = pool == null ? 1 : 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Create a pool of daemon threads for parsing
+     *
+     * @param nThreads number of threads, no pool if it is 1 or less
+     * @return the pool, or null
+     */
+    public static ExecutorService newPool(int nThreads) {
+        if (nThreads <= 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "cdr-reader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Next batch of records
+     *
+     * @return batch in file order, null if the region is finished or maxTime is reached
+     * @throws IOException
+     * @throws ParseException
+     */
+    public CallBatch next() throws IOException, ParseException {
+        while (true) {
+            if (this.reachedMax) {
+                return null;
+            }
+            while (this.pending.size() < this.ahead && this.position < this.end) {
+                submit();
+            }
+            if (this.pending.isEmpty()) {
+                if (this.end < this.fileSize & !this.probed) {
+                    probe();
+                    continue;
+                }
+                return null;
+            }
+            CallBatch batch = get(this.pending.poll());
+            if (batch.reachedMax) {
+                this.reachedMax = true;
+                cancel();
+            }
+            if (batch.size > 0 | batch.reachedMax) {
+                return batch;
+            }
+        }
+    }
+
+    /**
+     * @return whether the first record at or after maxTime has been seen
+     */
+    public boolean reachedMax() {
+        return this.reachedMax;
+    }
+
+    public void close() throws IOException {
+        cancel();
+        this.raf.close();
+    }
+
+    // helper function to submit the next chunk, cut at the first line break after chunkSize
+    private void submit() throws IOException {
+        final long from = this.position;
+        long to = from + this.chunkSize >= this.end ? this.end : lineEnd(from + this.chunkSize);
+        this.position = to;
+        final int length = (int) (to - from);
+        Callable<CallBatch> task = new Callable<CallBatch>() {
+            public CallBatch call() throws Exception {
+                return parse(from, length);
+            }
+        };
+        if (this.pool == null) {
+            this.pending.add(new Done(task));
+        } else {
+            this.pending.add(this.pool.submit(task));
+        }
+    }
+
+    /**
+     * helper function to check the first record after the region,
+     *  if it is not at or after maxTime (i.e. the region was cut too early), read on until the end of file
+     */
+    private void probe() throws IOException, ParseException {
+        this.probed = true;
+        CallRecordReader br = new CallRecordReader(Channels.newInputStream(this.channel.position(this.end)));
+        while (br.next()) {
+            if (!br.record.negative) {
+                if (br.record.hour >= this.maxTime) {
+                    this.reachedMax = true;
+                } else {
+                    this.end = this.fileSize;
+                }
+                return;
+            }
+        }
+    }
+
+    // helper function to find the position right after the next line break at or after pos
+    private long lineEnd(long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < this.end) {
+            buf.clear();
+            int n = this.channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return Math.min(pos + i + 1, this.end);
+                }
+            }
+            pos += n;
+        }
+        return this.end;
+    }
+
+    // parse one chunk, done by the workers
+    private CallBatch parse(long from, int length) throws IOException, ParseException {
+        MappedByteBuffer data = this.channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+
+        CallBatch batch = new CallBatch(length / 40);
+        batch.setData(data);
+        CallRecord record = new CallRecord();
+        int start = 0;
+        while (start < length) {
+            int stop = start;
+            while (stop < length && data.get(stop) != '\n') stop++;
+            if (record.parse(data, start, stop) && !record.negative) {
+                if (record.hour >= this.maxTime) {
+                    batch.reachedMax = true;
+                    break;
+                }
+                if (record.hour >= this.startTime) {
+                    batch.add(record, start);
+                }
+            }
+            start = stop + 1;
+        }
+        return batch;
+    }
+
+    // helper function to wait for a chunk
+    private static CallBatch get(Future<CallBatch> future) throws IOException, ParseException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof ParseException) throw (ParseException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    // helper function to drop chunks not needed anymore
+    private void cancel() {
+        for (Future<CallBatch> f : this.pending) {
+            f.cancel(false);
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * A chunk parsed in the calling thread, when there is no pool
+     */
+    private static class Done extends java.util.concurrent.FutureTask<CallBatch> {
+        Done(Callable<CallBatch> task) {
+            super(task);
+            run();
+        }
+    }
+}
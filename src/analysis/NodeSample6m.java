@@ -1,7 +1,10 @@
 package analysis;
 
+import data.GraphCSR;
 import data.NodeMotif;
 import data.NodeMotifwithColorNeighbour;
+import data.NodeTable;
+import data.ParallelMotifCounter;
 import util.MotifOrder;
 import util.VectorUtil;
 
@@ -114,11 +117,18 @@ public class NodeSample6m extends NodeSampleWeekNeighbour{
             // set parameter, hard threshold and independent sampling
             int hardThre = 50;
             boolean indep = false;
-
-            // check outlier  // TODO: check if this time span is right
-            fullData.checkOutlier(phonefile[set_to_read_phone], Integer.MAX_VALUE, phoneStart, phoneEnd, 1000, 0.9, hardThre, indep);
-            // stream phone data  // TODO: check if this time span is right
-            fullData.streamPhone(phonefile[set_to_read_phone], Integer.MAX_VALUE, phoneStart, phoneEnd, hardThre);
+            // read phone files once, keeping calls in memory between outlier check and graph
+            boolean onePass = true;
+
+            if (onePass) {
+                // check outlier and stream phone data in a single pass  // TODO: check if this time span is right
+                fullData.streamPhoneOnce(phonefile[set_to_read_phone], Integer.MAX_VALUE, phoneStart, phoneEnd, 1000, 0.9, hardThre, indep);
+            } else {
+                // check outlier  // TODO: check if this time span is right
+                fullData.checkOutlier(phonefile[set_to_read_phone], Integer.MAX_VALUE, phoneStart, phoneEnd, 1000, 0.9, hardThre, indep);
+                // stream phone data  // TODO: check if this time span is right
+                fullData.streamPhone(phonefile[set_to_read_phone], Integer.MAX_VALUE, phoneStart, phoneEnd, hardThre);
+            }
 
             // get all data without sampling
             fullData.sampleNode(Integer.MAX_VALUE, Integer.MAX_VALUE, indep);
@@ -129,38 +139,39 @@ public class NodeSample6m extends NodeSampleWeekNeighbour{
                 fullData.allMotif.nodes.get(j).organize();
             }
 
+            // freeze node attributes into columns and the organized lists into a CSR graph for motif counting
+            NodeTable table = new NodeTable(fullData.allMotif);
+            // code the rows as they are built, a few times smaller once renumbered, at the cost of decoding them
+            boolean compressRows = true;
+            GraphCSR graph = new GraphCSR(fullData.allMotif, table, compressRows);
+            // renumber rows in breadth-first order so that neighbours are close in memory, output keeps the original IDs
+            boolean reorderNodes = true;
+            if (reorderNodes) {
+                graph = graph.permute(graph.bfsOrder());
+            }
+            System.out.println("Graph frozen, entries: " + graph.entries() + ", bytes of rows: " + graph.rowBytes());
+
             // count motifs for each node themselves
             // without sample, output all nodes
             System.out.println("Start counting motif for each node");
-            int tempCount = 0;
-            for (int j : fullData.dict.values()) {
-                if (fullData.allMotif.nodes.get(j) == null) {
-                    continue;
-                }
-                fullData.allMotif.nodes.get(j).motifCount_wlabel(fullData.allMotif);
-                tempCount++;
-                if (tempCount % 10000 == 0) System.out.printf("-");
-            }
+            // nodes are split among threads by the work of their rows (the nodes in allMotif are the ones in dict)
+            int countThreads = Runtime.getRuntime().availableProcessors();
+            ParallelMotifCounter counter = new ParallelMotifCounter(graph, fullData.allMotif, countThreads);
+            counter.countMotifs();
             System.out.println("Start counting neighbour motif for each node with label");
-            tempCount = 0;
-            for (int j : fullData.dict.values()) {
-                if (fullData.allMotif.nodes.get(j) == null) {
-                    continue;
-                }
-                fullData.allMotif.nodes.get(j).motifCount_neighbour(fullData.allMotif);
-                tempCount++;
-                if (tempCount % 10000 == 0) System.out.printf("-");
-            }
+            counter.countNeighbourMotifs();
+            counter.shutdown();
 
             System.out.println("Start changing motif back to final version");
-            tempCount = 0;
+            int tempCount = 0;
             for(int j : fullData.dict.values()){
                 if (fullData.allMotif.nodes.get(j) == null) {
                     continue;
                 }
-                MotifOrder.changeOrder2(fullData.allMotif.nodes.get(j).motif);
-                MotifOrder.changeOrderDouble2(fullData.allMotif.nodes.get(j).motif_from_no);
-                MotifOrder.changeOrderDouble2(fullData.allMotif.nodes.get(j).motif_from_yes);
+                NodeMotifwithColorNeighbour node = fullData.allMotif.nodes.get(j);
+                node.motif = MotifOrder.changeOrder(node.motif);
+                node.motif_from_no = MotifOrder.changeOrderDouble(node.motif_from_no);
+                node.motif_from_yes = MotifOrder.changeOrderDouble(node.motif_from_yes);
                 tempCount++;
                 if (tempCount % 10000 == 0) System.out.printf("-");
             }
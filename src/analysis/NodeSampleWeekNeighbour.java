@@ -1,31 +1,45 @@
 package analysis;
 
 import com.google.common.collect.Sets;
+import data.GraphCSR;
 import data.NodeMotif;
 import data.NodeMotifHashMap;
 import data.NodeMotifwithColorNeighbour;
 import data.NodeMotifwithNeighbour;
+import data.NodeTable;
+import data.ParallelMotifCounter;
+import util.CountMinSketch;
+import util.EdgeCounter;
+import util.IntHistogram;
+import util.LongIntHashMap;
 import util.MotifOrder;
+import util.SpaceSaving;
 import util.VectorUtil;
 
 import java.io.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Count Motifs week by week
  *
  * Basic flow:
  *  1. Read MM for one period, add long ID into a integer dictionary [dict], initialize those ID in [allMotif]
+ *     (the MM file is indexed once by MMSignupIndex, each period then only looks up the index)
  *  2. Read phone data for this period and one period before, expand [dict] and [allMotif], fill in -lists in [allMotif]
  *  3. Combine all degrees/frequencies of each node with ID in [allMotif] to several lists, calculate quantile threshold (for only IDs active in this period)
  *  4. Remove IDs from [dict] and [allMotif] based on quantile threshold and hard threshold
  *  5. Reset all -lists in [allMotif] to be empty
  *  6. Read phone data again, fill in [allMotif] again, this time with only nodes in dictionary
+ *     (streamPhoneOnce does 2-6 reading phone data only once, keeping the calls in memory in between)
  *  7. count motifs
  *  8. (optionally) sample integers in [dict] to a list, and output only motif counts in that list([sample])
- *  9. swipe -list empty, and remove frequencies in [allMotif]
+ *  9. swipe -list empty, and remove frequencies in [allMotif] (only if [swipeEachPeriod])
  *  10. Repeat for next period
  *
  *  Note: outliers are checked for each period individually, as outlier IDs could be re-entered in dict
@@ -41,13 +55,34 @@ public class NodeSampleWeekNeighbour{
 
 
     // dictionary of IDs
-    public HashMap<Long, Integer> dict = new HashMap<Long, Integer>();
+    public LongIntHashMap dict = new LongIntHashMap(1 << 20);
     // initialize size of nodes
     int allSize = 0;
     // a set of integers as sample
     public HashSet<Integer> sample = new HashSet<Integer>();
     // HashMap of NodeMotifs
     //    public NodeMotifHashMap allMotif = new NodeMotifHashMap();
+    // worker threads parsing phone files, null to parse in the main thread
+    public ExecutorService readerPool = MappedCallReader.newPool(Runtime.getRuntime().availableProcessors());
+    // whether to skip to the start date of each period through the day index of phone files
+    public boolean useDayIndex = true;
+    // whether to read phone files from their binary cache ([file].calls), written on first use next to each file,
+    //      which takes 13 bytes per call on disk
+    public boolean useCallCache = false;
+    // whether checkOutlier first looks for heavy hitters (call centres, spam numbers) to keep them out of neighbour lists
+    public boolean heavyHitterFilter = false;
+    // number of senders and receivers followed when looking for heavy hitters
+    public int heavyHitterCapacity = 10000;
+    // whether to take MM sign-up from the index of the MM file built once, instead of reading the file every period
+    public boolean useSignupIndex = true;
+    // IDs of the nodes with label 1 (MM users), kept with the labels by streamMM
+    public BitSet mmUsers = new BitSet();
+    // whether nodes kept from earlier periods are swiped (step 9) before reading the next period; if not, as in the
+    //      original flow, their organized lists cannot take new calls in the outlier check, so they are checked on
+    //      the lists of the period before, and their frequencies add up over the periods
+    public boolean swipeEachPeriod = false;
+    // name of each node by ID, null once removed, kept for graph snapshots
+    ArrayList<String> names = new ArrayList<String>();
     public NodeMotifHashMap allMotif = new NodeMotifHashMap();
 
 
@@ -74,6 +109,10 @@ public class NodeSampleWeekNeighbour{
      * @throws ParseException
      */
     public void streamMM(String file, int max, String phoneStart, String PhoneEnd, String maxDate) throws IOException, ParseException {
+        if (this.useSignupIndex) {
+            streamMM(MMSignupIndex.get(file), max, phoneStart, PhoneEnd, maxDate);
+            return;
+        }
         int nextindex = this.allSize;
         // time starting reading Phone
         double startTime = GlobalHelper.parseDate(phoneStart);
@@ -83,20 +122,19 @@ public class NodeSampleWeekNeighbour{
         double maxTime = GlobalHelper.parseDate(maxDate);
         double time = 0.0;
 
-        String line;
-        BufferedReader br = new BufferedReader(new FileReader(file));
+        CallRecordReader br = new CallRecordReader(file);
+        CallRecord record = br.record;
 
         // start reading file
-        while ((line = br.readLine()) != null) {
+        while (br.next()) {
 
             // each lines look like: "L45485508|L10822145|080703|09:40:55|20|170|172"
             // each block: 0-sender, 1-receiver, 3-date, 4-time, 5-amount, 6-senderTower, 7-receiverTower
 
-            String[] field = line.split("\\|");
-            if (field[4].charAt(0) != '-') {
+            if (!record.negative) {
 
-                // parse time
-                time = GlobalHelper.parseTime(field);
+                // time already parsed
+                time = record.hour;
 
                 // check if maximum time or number of records is reached
                 //       if time before starting time, still need to proceed
@@ -104,9 +142,8 @@ public class NodeSampleWeekNeighbour{
                     break;
                 }
 
-                // parse sender into Long ID
-                String sender = field[0].replace("L", "0").replace("F", "1").replace("N", "2");
-                long s = Long.parseLong(sender);
+                // sender already parsed into Long ID
+                long s = record.sender;
 
                 // no need to parse receiver ID here, since only sending MM is considered here
 
@@ -132,8 +169,10 @@ public class NodeSampleWeekNeighbour{
                  *      sign up midTime to maxTime: Y = 1, label = 0
                  *      sign up after maxTime: ignore (not reaching here)
                  */
-                if (this.dict.get(s) == null) {
+                int index = this.dict.get(s);
+                if (index < 0) {
                     this.dict.put(s, nextindex);
+                    String sender = record.senderName();
                     if (time < startTime) {
 //                        this.allMotif.nodes.put(nextindex, new NodeMotifwithNeighbour(nextindex, time, -1, 1));
                         this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(sender, nextindex, time, -1,
@@ -145,10 +184,11 @@ public class NodeSampleWeekNeighbour{
 //                        this.allMotif.nodes.put(nextindex, new NodeMotifwithNeighbour(nextindex, time, 1, 0));
                         this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(sender, nextindex, time, 1, 0));
                     }
+                    this.keepName(nextindex, sender);
+                    this.keepLabel(this.allMotif.nodes.get(nextindex));
                     nextindex++;
                 } else {
                     // if node already in the file, update label and y
-                    int index = this.dict.get(s);
                     if(this.allMotif.nodes.get(index) == null ) continue;
 
                     if (time < startTime) {
@@ -169,6 +209,7 @@ public class NodeSampleWeekNeighbour{
                         this.allMotif.nodes.get(index).label = 0;
                         this.allMotif.nodes.get(index).y = 1;
                     }
+                    this.keepLabel(this.allMotif.nodes.get(index));
 
                 }
             }
@@ -180,6 +221,99 @@ public class NodeSampleWeekNeighbour{
         System.out.println("Last transaction time: " + time);
     }
 
+    /**
+     * Read Mobile money data from the index of the MM file,
+     *  giving the same dictionary, nodes, y and label as reading the file up to maxDate
+     *
+     * @param index index of MM file
+     * @param max maximum number of records read
+     * @param phoneStart  Start date in string; in weekly case, day 0
+     * @param PhoneEnd Middle date in string; in weekly case, day 7
+     * @param maxDate  End date in string; in weekly case, day 14
+     * @throws ParseException
+     */
+    public void streamMM(MMSignupIndex index, int max, String phoneStart, String PhoneEnd, String maxDate) throws ParseException {
+        int nextindex = this.allSize;
+        // time starting checking MM sign-up
+        double midTime = GlobalHelper.parseDate(PhoneEnd);
+        // time stop reading data
+        double maxTime = GlobalHelper.parseDate(maxDate);
+
+        // number of records read before maximum time is reached
+        int end = index.prefix(maxTime);
+        // or before maximum number of nodes is reached
+        if (nextindex > max) {
+            end = 0;
+        } else if (max < Integer.MAX_VALUE) {
+            int n = nextindex;
+            for (int i = 0; i < index.size() && index.seq[index.start[i]] < end; i++) {
+                if (!this.dict.containsKey(index.ids[i]) && ++n > max) {
+                    end = index.seq[index.start[i]] + 1;
+                    break;
+                }
+            }
+        }
+
+        // senders in order of their first transfer, same as they are met in the file
+        for (int i = 0; i < index.size(); i++) {
+            if (index.seq[index.start[i]] >= end) {
+                break;
+            }
+            int n = index.count(i, end);
+            long s = index.ids[i];
+            int id = this.dict.get(s);
+            // transfers already taken into account
+            int k = 0;
+            if (id < 0) {
+                // new node, signed up at the first transfer
+                double time = index.hour(i, 0);
+                id = nextindex;
+                this.dict.put(s, id);
+                if (time < midTime) {
+                    this.allMotif.nodes.put(id, new NodeMotifwithColorNeighbour(index.names[i], id, time, -1, 1));
+                } else {
+                    this.allMotif.nodes.put(id, new NodeMotifwithColorNeighbour(index.names[i], id, time, 1, 0));
+                }
+                this.keepName(id, index.names[i]);
+                nextindex++;
+                k = 1;
+            }
+            NodeMotif node = this.allMotif.nodes.get(id);
+            if (node == null) {
+                continue;
+            }
+
+            // update label and y, as in streamMM: each transfer before midTime sets y = -1,
+            // so only the last of them and the transfers after it matter
+            int last = n - 1;
+            while (last >= k && index.hour(i, last) >= midTime) {
+                last--;
+            }
+            if (last >= k) {
+                node.y = -1;
+                node.label = 1;
+            }
+            for (int j = last + 1; j < n; j++) {
+                if (node.y == 1 & node.t < midTime) {
+                    node.label = 1;
+                    node.y = -1;
+                } else {
+                    node.label = 0;
+                    node.y = 1;
+                }
+            }
+            this.keepLabel(node);
+        }
+        this.allSize = nextindex;
+        double time = 0.0;
+        if (index.records() > 0) {
+            time = index.hour[Math.min(end, index.records() - 1)];
+        }
+        System.out.println("Finish reading MM index for current period");
+        System.out.println("Number of nodes now: " + nextindex);
+        System.out.println("Last transaction time: " + time);
+    }
+
 
     /***
      * Read phone files
@@ -200,45 +334,38 @@ public class NodeSampleWeekNeighbour{
         double maxTime = GlobalHelper.parseDate(maxDate);
         double time;
         double counter = Double.MIN_VALUE;
-        String line;
         System.out.println("Read phone from " + mmStart + " to " + maxDate);
 
+        // calls are first combined into counts of distinct edges, each batch counted on its own (by the reader pool
+        // if any) and merged in order, then each edge updates the two nodes once
+        EdgeCounter edges = new EdgeCounter(1 << 16);
+        LinkedList<Future<EdgeCounter>> shards = new LinkedList<Future<EdgeCounter>>();
+        int maxShards = this.readerPool == null ? 0 : 2 * Runtime.getRuntime().availableProcessors();
+
         // loop through files until end of time period is reached
+        fileLoop:
         for (int i = 0; i < files.length; i++) {
-            BufferedReader br = new BufferedReader(new FileReader(files[i]));
-            // read line
-            while ((line = br.readLine()) != null) {
-                String[] field = line.split("\\|");
-                if (field[4].charAt(0) != '-') {
-                    time = GlobalHelper.parseTime(field);
-                    if (time < startTime) {
-                        continue;
-                    }
-                    if (time >= maxTime) {
-                        br.close();
-                        return;
-                    }
-
-                    // parse ID
-                    String sender = field[0].replace("L", "0").replace("F", "1").replace("N", "2");
-                    String receiver = field[1].replace("L", "0").replace("F", "1").replace("N", "2");
-                    // convert to Long ID
-                    long s = Long.parseLong(sender);
-                    long r = Long.parseLong(receiver);
-
-                    // since the data has been stored already in outlier check,
-                    // not in dictionary means they are outliers
-                    if (this.dict.get(s) == null | this.dict.get(r) == null) {
-                        continue;
+            CallBatchReader br = openPhone(files[i], mmStart, maxDate, startTime, maxTime);
+            CallBatch batch;
+            // read batches of records, already within [startTime, maxTime)
+            while ((batch = br.next()) != null) {
+                if (this.readerPool == null) {
+                    edges.merge(combine(batch));
+                } else {
+                    final CallBatch records = batch;
+                    shards.add(this.readerPool.submit(new Callable<EdgeCounter>() {
+                        public EdgeCounter call() {
+                            return combine(records);
+                        }
+                    }));
+                    while (shards.size() > maxShards) {
+                        edges.merge(getShard(shards.removeFirst()));
                     }
+                }
 
-                    // update neighborhood
-                    int sid = this.dict.get(s);
-                    int rid = this.dict.get(r);
-                    this.allMotif.nodes.get(sid).sendto(rid, this.allMotif.nodes.get(rid).label == 1);
-                    this.allMotif.nodes.get(rid).recfrom(sid, this.allMotif.nodes.get(sid).label == 1);
-
-                    // print a dot for each new day
+                // print a dot for each new day
+                if (batch.size > 0) {
+                    time = batch.hour[batch.size - 1];
                     if (time - counter > 24) {
                         System.out.printf(".");
                         counter = time;
@@ -246,8 +373,25 @@ public class NodeSampleWeekNeighbour{
                 }
             }
             br.close();
+            // end of time period
+            if (br.reachedMax()) {
+                break fileLoop;
+            }
+        }
+        while (!shards.isEmpty()) {
+            edges.merge(getShard(shards.removeFirst()));
         }
 
+        // update neighborhood, once for each distinct edge
+        for (int e = 0; e < edges.size(); e++) {
+            int sid = edges.from(e);
+            int rid = edges.to(e);
+            NodeMotif sender = this.allMotif.nodes.get(sid);
+            NodeMotif receiver = this.allMotif.nodes.get(rid);
+            sender.sendto(rid, this.mmUsers.get(rid), edges.count(e));
+            receiver.recfrom(sid, this.mmUsers.get(sid), edges.count(e));
+        }
+        System.out.println("Calls combined into " + edges.size() + " distinct edges");
 
         return;
 
@@ -269,6 +413,71 @@ public class NodeSampleWeekNeighbour{
         //			System.out.println("Number of nodes deleted again: " + countremove);
     }
 
+    /**
+     * Count the calls of one batch between nodes in the dictionary,
+     *  only reads [dict], so batches can be counted by several threads at once
+     *
+     * @param batch batch of records
+     * @return counts of distinct edges, in order of first appearance in the batch
+     */
+    private EdgeCounter combine(CallBatch batch) {
+        EdgeCounter shard = new EdgeCounter(batch.size);
+        for (int k = 0; k < batch.size; k++) {
+            // since the data has been stored already in outlier check,
+            // not in dictionary means they are outliers
+            int sid = this.dict.get(batch.sender[k]);
+            int rid = this.dict.get(batch.receiver[k]);
+            if (sid < 0 | rid < 0) {
+                continue;
+            }
+            shard.add(sid, rid, 1);
+        }
+        return shard;
+    }
+
+    // helper function to wait for a shard counted by the reader pool
+    private static EdgeCounter getShard(Future<EdgeCounter> shard) throws IOException {
+        try {
+            return shard.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Open a phone file for one period,
+     *  if the day index is used, reading starts from the first line of the start date and stops before the end date,
+     *  if the binary cache is used, records are read from the cache of the file (converted on first use)
+     *
+     * @param file phone file
+     * @param startDate start date in string
+     * @param maxDate end date in string
+     * @param startTime start date in hours
+     * @param maxTime end date in hours
+     * @return reader of the file
+     * @throws IOException
+     * @throws ParseException
+     */
+    private CallBatchReader openPhone(String file, String startDate, String maxDate, double startTime, double maxTime) throws IOException, ParseException {
+        if (this.useCallCache) {
+            CallCache cache = CallCache.get(file);
+            long from = this.useDayIndex ? cache.firstRecord(Integer.parseInt(startDate)) : 0;
+            return new CachedCallReader(cache, from, startTime, maxTime);
+        }
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        if (this.useDayIndex) {
+            CallDayIndex index = CallDayIndex.get(file);
+            from = index.offset(Integer.parseInt(startDate));
+            to = index.endOffset(Integer.parseInt(maxDate));
+        }
+        return new MappedCallReader(file, from, to, startTime, maxTime, this.readerPool, MappedCallReader.defaultChunkSize);
+    }
+
     /**
      * Calculate min threshold of the frequencies under normal assumption
      * @param raw ArrayList of call frequencies
@@ -315,28 +524,42 @@ public class NodeSampleWeekNeighbour{
         double maxTime = GlobalHelper.parseDate(maxDate);
         double time;
         double counter = startTime;
-        String line;
         System.out.println("First-batch check outlier: phone from " + phoneStart + "to" + maxDate);
 
+        // nodes kept from previous periods start this period with empty lists and frequencies
+        if (this.swipeEachPeriod) {
+            this.swipeAll();
+        }
+
+        // heavy hitters do not get neighbour lists, they are only kept in the lists of the other nodes
+        // and their degrees are counted from there: in-degree, out-degree, degree, and whether any link reaches hardThre
+        HashSet<Long> heavy = this.heavyHitterFilter ? findHeavyHitters(files, phoneStart, maxDate, thre) : new HashSet<Long>();
+        BitSet isHeavy = new BitSet();
+        HashMap<Integer, int[]> heavyDeg = new HashMap<Integer, int[]>();
+        // calls between two heavy hitters
+        EdgeCounter heavyEdges = new EdgeCounter(16);
+        for (long h : heavy) {
+            int id = this.dict.get(h);
+            if (id >= 0) {
+                isHeavy.set(id);
+                heavyDeg.put(id, new int[4]);
+            }
+        }
+
         for (int i = 0; i < files.length; i++) {
             String file = files[i];
-            BufferedReader br = new BufferedReader(new FileReader(file));
-            while ((line = br.readLine()) != null) {
-                String[] field = line.split("\\|");
-
-                if (field[4].charAt(0) != '-') {
-                    time = GlobalHelper.parseTime(field);
-                    if (time < startTime) {
-                        continue;
-                    }
-                    if (time >= maxTime | nextindex > max) {
-                        break;
+            CallBatchReader br = openPhone(file, phoneStart, maxDate, startTime, maxTime);
+            CallBatch batch;
+            fileLoop:
+            while ((batch = br.next()) != null) {
+                for (int k = 0; k < batch.size; k++) {
+                    time = batch.hour[k];
+                    if (nextindex > max) {
+                        break fileLoop;
                     }
-                    String sender = field[0].replace("L", "0").replace("F", "1").replace("N", "2");
-                    String receiver = field[1].replace("L", "0").replace("F", "1").replace("N", "2");
 
-                    long s = Long.parseLong(sender);
-                    long r = Long.parseLong(receiver);
+                    long s = batch.sender[k];
+                    long r = batch.receiver[k];
                     /*
                      * if independent, unless both are present or both are both not
                      * otherwise ignore
@@ -347,27 +570,43 @@ public class NodeSampleWeekNeighbour{
                         }
                     }
 
-                    if (this.dict.get(s) == null) {
-                        this.dict.put(s, nextindex);
+                    int sid = this.dict.get(s);
+                    if (sid < 0) {
+                        sid = nextindex;
+                        this.dict.put(s, sid);
 //                        this.allMotif.nodes.put(nextindex, new NodeMotifwithNeighbour(nextindex));
-                        this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(sender, nextindex));
+                        this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(batch.senderName(k), nextindex));
+                        this.keepName(nextindex, batch.senderName(k));
                         nextindex++;
+                        if (heavy.contains(s)) {
+                            isHeavy.set(sid);
+                            heavyDeg.put(sid, new int[4]);
+                        }
                     }
-                    if (this.dict.get(r) == null) {
-                        this.dict.put(r, nextindex);
+                    int rid = this.dict.get(r);
+                    if (rid < 0) {
+                        rid = nextindex;
+                        this.dict.put(r, rid);
 //                        this.allMotif.nodes.put(nextindex, new NodeMotifwithNeighbour(nextindex));
-                        this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(receiver, nextindex));
+                        this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(batch.receiverName(k), nextindex));
+                        this.keepName(nextindex, batch.receiverName(k));
                         nextindex++;
+                        if (heavy.contains(r)) {
+                            isHeavy.set(rid);
+                            heavyDeg.put(rid, new int[4]);
+                        }
                     }
-                    int sid = this.dict.get(s);
-                    int rid = this.dict.get(r);
 
                     // update neighbors
                     try {
-                        this.allMotif.nodes.get(sid).sendto(rid);
-                        this.allMotif.nodes.get(rid).recfrom(sid);
+                        if (isHeavy.get(sid) | isHeavy.get(rid)) {
+                            countHeavy(sid, rid, isHeavy, heavyDeg, heavyEdges, hardThre);
+                        } else {
+                            this.allMotif.nodes.get(sid).sendto(rid);
+                            this.allMotif.nodes.get(rid).recfrom(sid);
+                        }
                     }catch (UnsupportedOperationException e){
-                        // TODO: figure out what caused this problem?
+                        // lists organized in the period before, if not swiped: the call is not in the lists
                     }
                     // update degree counts (frequency)
                     this.allMotif.nodes.get(sid).outFreq++;
@@ -382,13 +621,30 @@ public class NodeSampleWeekNeighbour{
             this.allSize = nextindex;
             br.close();
         }
+        // links between heavy hitters
+        for (int e = 0; e < heavyEdges.size(); e++) {
+            int sid = heavyEdges.from(e);
+            int rid = heavyEdges.to(e);
+            int back = heavyEdges.get(rid, sid);
+            heavyDeg.get(sid)[1]++;
+            heavyDeg.get(rid)[0]++;
+            if (back == 0 | sid < rid) {
+                heavyDeg.get(sid)[2]++;
+                heavyDeg.get(rid)[2]++;
+            }
+            if (heavyEdges.count(e) + back >= hardThre) {
+                heavyDeg.get(sid)[3] = 1;
+                heavyDeg.get(rid)[3] = 1;
+            }
+        }
+
         // calcualte quantiles of in-deg, out-deg and their sums
-        ArrayList<Integer> indegs = new ArrayList<Integer>();
-        ArrayList<Integer> outdegs = new ArrayList<Integer>();
-        ArrayList<Integer> alldegs = new ArrayList<Integer>();
-        ArrayList<Integer> infreqs = new ArrayList<Integer>();
-        ArrayList<Integer> outfreqs = new ArrayList<Integer>();
-        ArrayList<Integer> allfreqs = new ArrayList<Integer>();
+        IntHistogram indegs = new IntHistogram();
+        IntHistogram outdegs = new IntHistogram();
+        IntHistogram alldegs = new IntHistogram();
+        IntHistogram infreqs = new IntHistogram();
+        IntHistogram outfreqs = new IntHistogram();
+        IntHistogram allfreqs = new IntHistogram();
 
         for (int node : this.allMotif.nodes.keySet()) {
             if (this.allMotif.nodes.get(node) == null) {
@@ -400,9 +656,16 @@ public class NodeSampleWeekNeighbour{
                 continue;
             }
 
-            indegs.add(this.allMotif.nodes.get(node).rList.size());
-            outdegs.add(this.allMotif.nodes.get(node).sList.size());
-            alldegs.add(this.allMotif.nodes.get(node).nList.size());
+            if (isHeavy.get(node)) {
+                int[] deg = heavyDeg.get(node);
+                indegs.add(deg[0]);
+                outdegs.add(deg[1]);
+                alldegs.add(deg[2]);
+            } else {
+                indegs.add(this.allMotif.nodes.get(node).rList.size());
+                outdegs.add(this.allMotif.nodes.get(node).sList.size());
+                alldegs.add(this.allMotif.nodes.get(node).nList.size());
+            }
 
             infreqs.add(this.allMotif.nodes.get(node).inFreq);
             outfreqs.add(this.allMotif.nodes.get(node).outFreq);
@@ -424,11 +687,10 @@ public class NodeSampleWeekNeighbour{
 
 
         //update dictionary
-        Iterator<Map.Entry<Long, Integer>> iter = this.dict.entrySet().iterator();
+        LongIntHashMap.Cursor iter = this.dict.cursor();
         int countRemove = 0;
-        while (iter.hasNext()) {
-            Map.Entry<Long, Integer> entry = iter.next();
-            int id = entry.getValue();
+        while (iter.next()) {
+            int id = iter.value();
             if (this.allMotif.nodes.get(id) == null) {
                 //System.out.println("!");
                 continue;
@@ -437,27 +699,30 @@ public class NodeSampleWeekNeighbour{
             // remove nodes with one-direction only communication and too large
             if (temp.inFreq + temp.outFreq > thre & temp.inFreq * temp.outFreq == 0) {
                 iter.remove();
-                this.allMotif.nodes.remove(id);
+                this.removeNode(id);
                 countRemove++;
                 continue;
             }
             // remove nodes with too many calls
+            int[] deg = isHeavy.get(id) ? heavyDeg.get(id) : null;
             if (temp.inFreq > infreqQuantile
                     | temp.outFreq > outfreqQuantile
                     | temp.inFreq + temp.outFreq > allfreqQuantile
-                    | temp.rList.size() > indegQuantile
-                    | temp.sList.size() > outdegQuantile
-                    | temp.nList.size() > alldegQuantile) {
+                    | (deg == null ? temp.rList.size() : deg[0]) > indegQuantile
+                    | (deg == null ? temp.sList.size() : deg[1]) > outdegQuantile
+                    | (deg == null ? temp.nList.size() : deg[2]) > alldegQuantile) {
                 iter.remove();
-                this.allMotif.nodes.remove(id);
+                this.removeNode(id);
                 countRemove++;
                 continue;
             }
             // thin frequencies by hard threshold, keeping only links stronger than it
-            temp.thinFreq(hardThre);
-            if (temp.sList.size() + temp.rList.size() == 0) {
+            if (deg == null) {
+                temp.thinFreq(hardThre);
+            }
+            if (deg == null ? temp.sList.size() + temp.rList.size() == 0 : deg[3] == 0) {
                 iter.remove();
-                this.allMotif.nodes.remove(id);
+                this.removeNode(id);
                 countRemove++;
                 continue;
             }
@@ -521,6 +786,421 @@ public class NodeSampleWeekNeighbour{
         //        System.out.println("Finished deleting outlier from thinning edges, deleted:    " + countRemove);
     }
 
+    /**
+     * Find heavy hitters among senders and receivers before reading the calls into neighbour lists:
+     *  nodes with surely more than thre calls sent (or received), from a Space-Saving summary of senders (receivers).
+     * A Count-Min sketch of the other direction tells how many of them surely have no call the other way,
+     *  i.e., will be removed by the one-directional rule of checkOutlier.
+     *
+     * @param files array of file lists
+     * @param phoneStart time start counting
+     * @param maxDate maximum date to read
+     * @param thre threshold for max one-directional communications
+     * @return Long IDs of heavy hitters
+     * @throws ParseException
+     * @throws IOException
+     */
+    public HashSet<Long> findHeavyHitters(String[] files, String phoneStart, String maxDate, int thre) throws ParseException, IOException {
+        double startTime = GlobalHelper.parseDate(phoneStart);
+        double maxTime = GlobalHelper.parseDate(maxDate);
+        SpaceSaving topSenders = new SpaceSaving(this.heavyHitterCapacity);
+        SpaceSaving topReceivers = new SpaceSaving(this.heavyHitterCapacity);
+        CountMinSketch sent = new CountMinSketch(4, 1 << 20);
+        CountMinSketch received = new CountMinSketch(4, 1 << 20);
+
+        for (int i = 0; i < files.length; i++) {
+            CallBatchReader br = openPhone(files[i], phoneStart, maxDate, startTime, maxTime);
+            CallBatch batch;
+            while ((batch = br.next()) != null) {
+                for (int k = 0; k < batch.size; k++) {
+                    topSenders.add(batch.sender[k]);
+                    topReceivers.add(batch.receiver[k]);
+                    sent.add(batch.sender[k]);
+                    received.add(batch.receiver[k]);
+                }
+            }
+            br.close();
+        }
+
+        HashSet<Long> heavy = new HashSet<Long>();
+        int oneWay = 0;
+        for (int i = 0; i < topSenders.size(); i++) {
+            if (topSenders.lowerBound(i) > thre && heavy.add(topSenders.key(i))) {
+                if (received.estimate(topSenders.key(i)) == 0) oneWay++;
+            }
+        }
+        for (int i = 0; i < topReceivers.size(); i++) {
+            if (topReceivers.lowerBound(i) > thre && heavy.add(topReceivers.key(i))) {
+                if (sent.estimate(topReceivers.key(i)) == 0) oneWay++;
+            }
+        }
+        System.out.println("Heavy hitters found: " + heavy.size() + ", surely one-directional: " + oneWay);
+        return heavy;
+    }
+
+    /**
+     * helper function to count a call with a heavy hitter on either side:
+     *  the other node gets it in its lists as usual, and the degrees of the heavy hitter are counted from there
+     *
+     * @param sid sender
+     * @param rid receiver
+     * @param isHeavy heavy hitters
+     * @param heavyDeg in-degree, out-degree, degree and whether any link reaches hardThre of heavy hitters
+     * @param heavyEdges calls between heavy hitters
+     * @param hardThre hard threshold of links
+     */
+    private void countHeavy(int sid, int rid, BitSet isHeavy, HashMap<Integer, int[]> heavyDeg, EdgeCounter heavyEdges, int hardThre) {
+        if (sid == rid) {
+            return;
+        }
+        if (isHeavy.get(sid) & isHeavy.get(rid)) {
+            heavyEdges.add(sid, rid, 1);
+        } else if (isHeavy.get(rid)) {
+            NodeMotif sender = this.allMotif.nodes.get(sid);
+            int[] deg = heavyDeg.get(rid);
+            if (!sender.sList.contains(rid)) deg[0]++;
+            if (!sender.nList.contains(rid)) deg[2]++;
+            sender.sendto(rid);
+            if (sender.nListFreq.get(rid) >= hardThre) deg[3] = 1;
+        } else {
+            NodeMotif receiver = this.allMotif.nodes.get(rid);
+            int[] deg = heavyDeg.get(sid);
+            if (!receiver.rList.contains(sid)) deg[1]++;
+            if (!receiver.nList.contains(sid)) deg[2]++;
+            receiver.recfrom(sid);
+            if (receiver.nListFreq.get(sid) >= hardThre) deg[3] = 1;
+        }
+    }
+
+    /**
+     * Read phone files only once for both the outlier check and the graph, i.e. checkOutlier then streamPhone
+     *
+     * Each call is counted into an in-memory edge buffer (pair of integer IDs and number of calls),
+     *  degrees and frequencies for the quantiles and the hard threshold are calculated from the buffer,
+     *  and neighbour lists of the remaining nodes are filled in from the buffer in the order edges first appeared,
+     *  so the graph is the same as reading the files a second time with streamPhone.
+     *
+     * @param files array of file lists
+     * @param max maximum number of records (not used)
+     * @param phoneStart time start counting
+     * @param maxDate maximum date to read
+     * @param thre threshold for max one-directional communications
+     * @param per percentile to consider as outlier for indeg/outdeg/sum/ndeg
+     * @param hardThre integer, how many one-directions calls consider as outlier (without the other direction)
+     * @param indep Boolean, if true, don't count pairs if only one of them is in the dictionary (only count both in or both not)
+     * @throws ParseException
+     * @throws NumberFormatException
+     * @throws IOException
+     */
+    public void streamPhoneOnce(String[] files, int max, String phoneStart, String maxDate, int thre, double per, int hardThre, boolean indep) throws ParseException, NumberFormatException, IOException {
+        int nextindex = this.allSize;
+        int beforeindex = nextindex;
+        double startTime = GlobalHelper.parseDate(phoneStart);
+        double maxTime = GlobalHelper.parseDate(maxDate);
+        double time;
+        double counter = startTime;
+        System.out.println("Single pass check outlier and read phone from " + phoneStart + " to " + maxDate);
+
+        // nodes kept from previous periods start this period with empty lists and frequencies,
+        //      if not, nodes with organized lists take no calls in the outlier check, as in checkOutlier
+        if (this.swipeEachPeriod) {
+            this.swipeAll();
+        }
+        BitSet organized = new BitSet();
+        for (int id : this.allMotif.nodes.keySet()) {
+            if (this.allMotif.nodes.get(id).organized()) {
+                organized.set(id);
+            }
+        }
+
+        // calls counted by pair of IDs
+        EdgeCounter edges = new EdgeCounter(1 << 16);
+        // calls counted in [edges] but only used for the outlier check:
+        //      streamPhone stops at the first file reaching the end of period, checkOutlier reads all files
+        EdgeCounter checkOnly = new EdgeCounter(16);
+        // calls counted in [edges] but only used for the graph:
+        //      checkOutlier stops when the maximum number of nodes is reached, streamPhone reads on
+        EdgeCounter graphOnly = new EdgeCounter(16);
+        // calls ignored by the outlier check when indep is true, pairs of Long IDs for the graph,
+        //      and number of edges in the buffer when each of them was read
+        ArrayList<Long> skipped = new ArrayList<Long>();
+        ArrayList<Integer> skippedAt = new ArrayList<Integer>();
+        boolean reachedMax = false;
+
+        for (int i = 0; i < files.length; i++) {
+            String file = files[i];
+            CallBatchReader br = openPhone(file, phoneStart, maxDate, startTime, maxTime);
+            CallBatch batch;
+            fileLoop:
+            while ((batch = br.next()) != null) {
+                for (int k = 0; k < batch.size; k++) {
+                    time = batch.hour[k];
+                    long s = batch.sender[k];
+                    long r = batch.receiver[k];
+                    if (nextindex > max) {
+                        if (reachedMax) {
+                            break fileLoop;
+                        }
+                        // no more nodes added, only calls between nodes already in the dictionary
+                        int sid = this.dict.get(s);
+                        int rid = this.dict.get(r);
+                        if (sid >= 0 & rid >= 0) {
+                            edges.add(sid, rid, 1);
+                            graphOnly.add(sid, rid, 1);
+                        }
+                        continue;
+                    }
+
+                    /*
+                     * if independent, unless both are present or both are both not
+                     * otherwise ignore
+                     */
+                    if (indep) {
+                        if (this.dict.containsKey(s) != this.dict.containsKey(r)) {
+                            if (!reachedMax) {
+                                skipped.add(s);
+                                skipped.add(r);
+                                skippedAt.add(edges.size());
+                            }
+                            continue;
+                        }
+                    }
+
+                    int sid = this.dict.get(s);
+                    if (sid < 0) {
+                        sid = nextindex;
+                        this.dict.put(s, sid);
+                        this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(batch.senderName(k), nextindex));
+                        this.keepName(nextindex, batch.senderName(k));
+                        nextindex++;
+                    }
+                    int rid = this.dict.get(r);
+                    if (rid < 0) {
+                        rid = nextindex;
+                        this.dict.put(r, rid);
+                        this.allMotif.nodes.put(nextindex, new NodeMotifwithColorNeighbour(batch.receiverName(k), nextindex));
+                        this.keepName(nextindex, batch.receiverName(k));
+                        nextindex++;
+                    }
+
+                    // update edge buffer
+                    edges.add(sid, rid, 1);
+                    if (reachedMax) {
+                        checkOnly.add(sid, rid, 1);
+                    }
+                    // update degree counts (frequency)
+                    this.allMotif.nodes.get(sid).outFreq++;
+                    this.allMotif.nodes.get(rid).inFreq++;
+                    // print a dot for each new day
+                    if (time - counter > 24) {
+                        System.out.printf(".");
+                        counter = time;
+                    }
+                }
+            }
+            this.allSize = nextindex;
+            br.close();
+            if (br.reachedMax()) {
+                reachedMax = true;
+            }
+        }
+
+        this.removeOutliers(edges, graphOnly, organized, beforeindex, thre, per, hardThre);
+        this.fillGraph(edges, checkOnly, skipped, skippedAt);
+    }
+
+    /**
+     * Remove outliers with the same rules as checkOutlier, from the calls of the period counted by pair of IDs
+     *
+     * @param edges calls of the period, by pair of IDs, with inFreq and outFreq of the nodes already counted
+     * @param graphOnly calls counted in [edges] but not to be used for the outlier check
+     * @param organized nodes with lists organized in the period before, checked on these lists,
+     *                  calls from them are in no lists and calls to them only in the lists of the sender
+     * @param beforeindex size of the dictionary before the period
+     * @param thre threshold for max one-directional communications
+     * @param per percentile to consider as outlier for indeg/outdeg/sum/ndeg
+     * @param hardThre integer, how many one-directions calls consider as outlier (without the other direction)
+     */
+    private void removeOutliers(EdgeCounter edges, EdgeCounter graphOnly, BitSet organized, int beforeindex, int thre, double per, int hardThre) {
+        int nextindex = this.allSize;
+        // degrees and whether any link is at least hardThre from the edge buffer
+        int[] indeg = new int[nextindex];
+        int[] outdeg = new int[nextindex];
+        int[] alldeg = new int[nextindex];
+        boolean[] strong = new boolean[nextindex];
+        for (int e = 0; e < edges.size(); e++) {
+            int sid = edges.from(e);
+            int rid = edges.to(e);
+            int count = edges.count(e) - graphOnly.get(sid, rid);
+            if (sid == rid | count == 0 || organized.get(sid)) {
+                continue;
+            }
+            outdeg[sid]++;
+            if (organized.get(rid)) {
+                alldeg[sid]++;
+                if (count >= hardThre) {
+                    strong[sid] = true;
+                }
+                continue;
+            }
+            indeg[rid]++;
+            int back = edges.get(rid, sid) - graphOnly.get(rid, sid);
+            // count each pair once for the neighbour list
+            if (back == 0 | sid < rid) {
+                alldeg[sid]++;
+                alldeg[rid]++;
+            }
+            if (count + back >= hardThre) {
+                strong[sid] = true;
+                strong[rid] = true;
+            }
+        }
+        // nodes with organized lists, from the lists of the period before
+        for (int id = organized.nextSetBit(0); id >= 0; id = organized.nextSetBit(id + 1)) {
+            NodeMotif temp = this.allMotif.nodes.get(id);
+            indeg[id] = temp.rList.size();
+            outdeg[id] = temp.sList.size();
+            alldeg[id] = temp.nList.size();
+            temp.thinFreq(hardThre);
+            strong[id] = temp.sList.size() + temp.rList.size() > 0;
+        }
+
+        // calcualte quantiles of in-deg, out-deg and their sums
+        IntHistogram indegs = new IntHistogram();
+        IntHistogram outdegs = new IntHistogram();
+        IntHistogram alldegs = new IntHistogram();
+        IntHistogram infreqs = new IntHistogram();
+        IntHistogram outfreqs = new IntHistogram();
+        IntHistogram allfreqs = new IntHistogram();
+
+        for (int node : this.allMotif.nodes.keySet()) {
+            NodeMotif temp = this.allMotif.nodes.get(node);
+            if (temp == null || temp.inFreq + temp.outFreq == 0) {
+                continue;
+            }
+            indegs.add(indeg[node]);
+            outdegs.add(outdeg[node]);
+            alldegs.add(alldeg[node]);
+
+            infreqs.add(temp.inFreq);
+            outfreqs.add(temp.outFreq);
+            allfreqs.add(temp.inFreq + temp.outFreq);
+        }
+        int indegQuantile = VectorUtil.percentile(indegs, per);
+        int outdegQuantile = VectorUtil.percentile(outdegs, per);
+        int alldegQuantile = VectorUtil.percentile(alldegs, per);
+        int infreqQuantile = VectorUtil.percentile(infreqs, per);
+        int outfreqQuantile = VectorUtil.percentile(outfreqs, per);
+        int allfreqQuantile = VectorUtil.percentile(allfreqs, per);
+
+        // update dictionary, same rules as checkOutlier
+        LongIntHashMap.Cursor iter = this.dict.cursor();
+        int countRemove = 0;
+        while (iter.next()) {
+            int id = iter.value();
+            NodeMotif temp = this.allMotif.nodes.get(id);
+            if (temp == null) {
+                continue;
+            }
+            if ((temp.inFreq + temp.outFreq > thre & temp.inFreq * temp.outFreq == 0)
+                    | temp.inFreq > infreqQuantile
+                    | temp.outFreq > outfreqQuantile
+                    | temp.inFreq + temp.outFreq > allfreqQuantile
+                    | indeg[id] > indegQuantile
+                    | outdeg[id] > outdegQuantile
+                    | alldeg[id] > alldegQuantile
+                    | !strong[id]) {
+                iter.remove();
+                this.removeNode(id);
+                countRemove++;
+            } else if (organized.get(id)) {
+                temp.reset();
+            }
+        }
+        System.out.println("Freq: " + infreqQuantile + " " + outfreqQuantile + " " + allfreqQuantile);
+        System.out.println("Deg: " + indegQuantile + " " + outdegQuantile + " " + alldegQuantile);
+
+        System.out.println("Finished deleting outlier, deleted:    " + countRemove);
+        System.out.println("Total new nodes read before deletion:  " + (nextindex - 1 - beforeindex));
+        System.out.println("Total nodes after deleting outlier:    " + this.dict.size());
+    }
+
+    /**
+     * Fill in the graph of the remaining nodes from the calls of the period, in the order edges first appeared
+     *
+     * @param edges calls of the period, by pair of IDs
+     * @param checkOnly calls counted in [edges] but not to be used for the graph
+     * @param skipped calls not counted in [edges], pairs of Long IDs
+     * @param skippedAt number of edges in [edges] when each of the skipped calls was read, where they are put back
+     */
+    private void fillGraph(EdgeCounter edges, EdgeCounter checkOnly, ArrayList<Long> skipped, ArrayList<Integer> skippedAt) {
+        int next = 0;
+        for (int e = 0; e <= edges.size(); e++) {
+            for (; next < skippedAt.size() && skippedAt.get(next) == e; next++) {
+                int sid = this.dict.get(skipped.get(2 * next));
+                int rid = this.dict.get(skipped.get(2 * next + 1));
+                if (sid < 0 | rid < 0) {
+                    continue;
+                }
+                this.allMotif.nodes.get(sid).sendto(rid, this.mmUsers.get(rid));
+                this.allMotif.nodes.get(rid).recfrom(sid, this.mmUsers.get(sid));
+            }
+            if (e == edges.size()) {
+                break;
+            }
+            int sid = edges.from(e);
+            int rid = edges.to(e);
+            int count = edges.count(e) - checkOnly.get(sid, rid);
+            NodeMotif sender = this.allMotif.nodes.get(sid);
+            NodeMotif receiver = this.allMotif.nodes.get(rid);
+            if (count == 0 || sender == null || receiver == null) {
+                continue;
+            }
+            sender.sendto(rid, this.mmUsers.get(rid), count);
+            receiver.recfrom(sid, this.mmUsers.get(sid), count);
+        }
+        System.out.println("Edges read in single pass:             " + edges.size());
+    }
+
+    /**
+     * helper function to keep the name of a node, or forget it if null
+     *
+     * @param id ID of the node
+     * @param name name of the node
+     */
+    void keepName(int id, String name) {
+        while (this.names.size() <= id) {
+            this.names.add(null);
+        }
+        this.names.set(id, name);
+    }
+
+    // helper function to keep the MM status of a node with its label
+    private void keepLabel(NodeMotif node) {
+        this.mmUsers.set(node.id, node.label == 1);
+    }
+
+    // helper function to remove a node from the nodes, with its name and MM status
+    private void removeNode(int id) {
+        this.allMotif.nodes.remove(id);
+        this.keepName(id, null);
+        this.mmUsers.clear(id);
+    }
+
+    // name of a node, null if it is not a node
+    String name(int id) {
+        return id < this.names.size() ? this.names.get(id) : null;
+    }
+
+    /**
+     * helper function to empty lists and frequencies of all nodes before reading a new period
+     */
+    private void swipeAll() {
+        for (int j : this.allMotif.nodes.keySet()) {
+            this.allMotif.nodes.get(j).swipe();
+        }
+    }
+
     /**
      * Sample node (could be done by outcome variable)
      *
@@ -533,7 +1213,9 @@ public class NodeSampleWeekNeighbour{
         Set<Integer> nodes_appeared = new HashSet<Integer>();
 
         if (y == Integer.MAX_VALUE) {
-            population.addAll(this.dict.values());
+            for (int i : this.dict.values()) {
+                population.add(i);
+            }
         } else {
             for (int i : this.allMotif.nodes.keySet()) {
                 if (allMotif.nodes.get(i).y == y) population.add(i);
@@ -680,69 +1362,92 @@ public class NodeSampleWeekNeighbour{
             // reset calendar to previous period again
             cal.add(Calendar.DATE, period * (-1));
 
-            // read MM file and update full data
-            fullData.streamMM(mmfile, Integer.MAX_VALUE, phoneStart, phoneEnd, MMEnd);
-            System.out.print("Checking status of sign-up done\n");
-
             // set parameter, hard threshold and independent sampling
             int hardThre = 2;
             boolean indep = false;
+            // threshold of one-directional calls and percentile for outliers
+            int thre = 1000;
+            double per = 0.99;
+            // read phone files once, keeping calls in memory between outlier check and graph
+            boolean onePass = true;
+
+            // organized graph of the period, loaded from its snapshot if an earlier run wrote one from the same data
+            boolean useSnapshot = false;
+            String snapshot = outputHeader + i + GraphSnapshot.suffix;
+            String source = GraphSnapshot.source(mmfile, phonefile, phoneStart, phoneEnd, MMEnd, thre, per, hardThre,
+                    indep, fullData.heavyHitterFilter, fullData.heavyHitterCapacity, fullData.swipeEachPeriod);
+            GraphCSR graph = useSnapshot ? GraphSnapshot.load(snapshot, source, fullData) : null;
+            if (graph == null) {
+                // read MM file and update full data
+                fullData.streamMM(mmfile, Integer.MAX_VALUE, phoneStart, phoneEnd, MMEnd);
+                System.out.print("Checking status of sign-up done\n");
+
+                if (onePass) {
+                    // check outlier and stream phone data in a single pass
+                    fullData.streamPhoneOnce(phonefile, Integer.MAX_VALUE, phoneStart, phoneEnd, thre, per, hardThre, indep);
+                } else {
+                    // check outlier  // TODO: outliers now are checked for each period, maybe better to check once for all
+                    fullData.checkOutlier(phonefile, Integer.MAX_VALUE, phoneStart, phoneEnd, thre, per, hardThre, indep);
+                    // stream phone data, starting from phoneStart through the day index of each file
+                    fullData.streamPhone(phonefile, Integer.MAX_VALUE, phoneStart, phoneEnd, hardThre);
+                }
 
-            // check outlier  // TODO: outliers now are checked for each period, maybe better to check once for all
-            fullData.checkOutlier(phonefile, Integer.MAX_VALUE, phoneStart, phoneEnd, 1000, 0.99, hardThre, indep);
-            // stream phone data  //TODO: phone files always starts with the first one, going through previous dates is a waste
-            fullData.streamPhone(phonefile, Integer.MAX_VALUE, phoneStart, phoneEnd, hardThre);
-
-            // get all data without sampling
-            fullData.sampleNode(Integer.MAX_VALUE, Integer.MAX_VALUE, indep);
-            System.out.println("Sample of nodes in the sample now:        " + fullData.sample.size());
+                // get all data without sampling
+                fullData.sampleNode(Integer.MAX_VALUE, Integer.MAX_VALUE, indep);
+                System.out.println("Sample of nodes in the sample now:        " + fullData.sample.size());
 
-            // sample Y = 1 nodes
-            //     fullData.sampleNode(Integer.MAX_VALUE, 1, indep);
-            //     System.out.println("Sample of nodes signed up in this period: " + fullData.sample.size());
-            // sample Y = 0 nodes
-            //     fullData.sampleNode(Integer.MAX_VALUE, 0, indep);
+                // sample Y = 1 nodes
+                //     fullData.sampleNode(Integer.MAX_VALUE, 1, indep);
+                //     System.out.println("Sample of nodes signed up in this period: " + fullData.sample.size());
+                // sample Y = 0 nodes
+                //     fullData.sampleNode(Integer.MAX_VALUE, 0, indep);
 
-            // get all the data organized. Note this is necessary as those not in the sample could be reached by friendship map
+                // get all the data organized. Note this is necessary as those not in the sample could be reached by friendship map
 //            System.out.println(fullData.allMotif.nodes.keySet().size());
 //            System.out.println(fullData.dict.values().size());
 
-            for (int j : fullData.allMotif.nodes.keySet()) {
-                fullData.allMotif.nodes.get(j).organize();
+                for (int j : fullData.allMotif.nodes.keySet()) {
+                    fullData.allMotif.nodes.get(j).organize();
+                }
+
+                // freeze node attributes into columns and the organized lists into a CSR graph for motif counting
+                NodeTable table = new NodeTable(fullData.allMotif);
+                graph = new GraphCSR(fullData.allMotif, table);
+                // renumber rows in breadth-first order so that neighbours are close in memory, output keeps the original IDs
+                boolean reorderNodes = true;
+                if (reorderNodes) {
+                    graph = graph.permute(graph.bfsOrder());
+                }
+                if (useSnapshot) {
+                    GraphSnapshot.write(snapshot, source, fullData, graph);
+                }
+            } else {
+                System.out.println("Graph read from snapshot " + snapshot);
+                fullData.sampleNode(Integer.MAX_VALUE, Integer.MAX_VALUE, indep);
             }
+            System.out.println("Graph frozen, entries: " + graph.entries() + ", bytes of rows: " + graph.rowBytes());
 
             // count motifs for each node themselves
             // without sample, output all nodes
             System.out.println("Start counting motif for each node");
-            int tempCount = 0;
-            for (int j : fullData.dict.values()) {
-                if (fullData.allMotif.nodes.get(j) == null) {
-                    continue;
-                }
-                fullData.allMotif.nodes.get(j).motifCount_wlabel(fullData.allMotif);
-                tempCount++;
-                if (tempCount % 10000 == 0) System.out.printf("-");
-            }
+            // nodes are split among threads by the work of their rows (the nodes in allMotif are the ones in dict)
+            int countThreads = Runtime.getRuntime().availableProcessors();
+            ParallelMotifCounter counter = new ParallelMotifCounter(graph, fullData.allMotif, countThreads);
+            counter.countMotifs();
             System.out.println("Start counting neighbour motif for each node with label");
-            tempCount = 0;
-            for (int j : fullData.dict.values()) {
-                if (fullData.allMotif.nodes.get(j) == null) {
-                    continue;
-                }
-                fullData.allMotif.nodes.get(j).motifCount_neighbour(fullData.allMotif);
-                tempCount++;
-                if (tempCount % 10000 == 0) System.out.printf("-");
-            }
+            counter.countNeighbourMotifs();
+            counter.shutdown();
 
             System.out.println("Start changing motif back to final version");
-            tempCount = 0;
+            int tempCount = 0;
             for(int j : fullData.dict.values()){
                 if (fullData.allMotif.nodes.get(j) == null) {
                     continue;
                 }
-                MotifOrder.changeOrder2(fullData.allMotif.nodes.get(j).motif);
-                MotifOrder.changeOrderDouble2(fullData.allMotif.nodes.get(j).motif_from_no);
-                MotifOrder.changeOrderDouble2(fullData.allMotif.nodes.get(j).motif_from_yes);
+                NodeMotifwithColorNeighbour node = fullData.allMotif.nodes.get(j);
+                node.motif = MotifOrder.changeOrder(node.motif);
+                node.motif_from_no = MotifOrder.changeOrderDouble(node.motif_from_no);
+                node.motif_from_yes = MotifOrder.changeOrderDouble(node.motif_from_yes);
                 tempCount++;
                 if (tempCount % 10000 == 0) System.out.printf("-");
             }
@@ -0,0 +1,1163 @@
+package data;
+
+import util.SortedIntSet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Frozen graph of all nodes in compressed sparse row form, built once the neighbour lists are organized
+ *
+ * For each relation (send-only, receive-only, mutual, all) the neighbours of node [id] are
+ *      targets[type][offsets[type][id]] ... targets[type][offsets[type][id + 1] - 1]
+ *  with the splits[type][id] neighbours of label 0 first and then those of label 1, each part in ascending order,
+ *  so that the neighbours with a given label are a slice of known size, membership is a binary search,
+ *  and each neighbour costs one int instead of a HashSet entry.
+ * Call frequencies are kept in an int array parallel to the all-neighbour relation,
+ *  and the labels of all nodes come from a NodeTable, so that motif counting does not need to look up the nodes.
+ * Labels are kept as two bitsets by row, of the rows that are nodes and of the nodes with label 1 (MM users),
+ *  so that a lookup while filling or counting is one bit of a word likely in cache.
+ *
+ * Rows can be renumbered (permute) so that neighbours are close in memory, e.g. in breadth-first order.
+ *  All methods then take and return row numbers: row(id) gives the row of a node ID, id(row) the node ID back.
+ *  Without renumbering the row of a node is its ID.
+ *
+ * The arrays are NIO buffers: off the heap by default (offHeap), so that the garbage collector does not scan them,
+ *  or mapped from temporary files (mapDirectory), so that the graph can be larger than the memory.
+ *  Each array is kept in segments of 2^30 bytes (Segments) and entries are numbered by longs, so that a relation
+ *  can have more than 2^31 entries.
+ * A graph can be written to a file (write) and mapped back from it (map) without reading the arrays.
+ *
+ * The rows can also be coded (compressed) as they are built or copied, in one array of bytes instead of all others.
+ *  A coded row is its length, the number of neighbours of each label of each relation, the bytes of each part,
+ *  each part as its first neighbour and the differences to the next ones, then the call frequencies of all
+ *  neighbours, all in variable-length bytes (7 bits each, high bit set if more follow), so that neighbours close in
+ *  row number, e.g. after renumbering in breadth-first order, take one or two bytes, and so do most frequencies.
+ *  Only the byte where every 2^BLOCK-th row starts is kept, the rows in between are skipped by their lengths.
+ *  All neighbours, being the send-only, receive-only and mutual ones together in most rows, are merged from those.
+ *  Rows of a compressed graph are read whole (neighbours, freqs) or streamed (countCommon, contains), not by entry.
+ *  Long rows, e.g. of hubs, that are searched in many times can be kept decoded as well (keepDecoded).
+ *
+ * Usage:
+ *      for (int j : nodeMap.nodes.keySet()) nodeMap.nodes.get(j).organize();
+ *      GraphCSR graph = new GraphCSR(nodeMap, new NodeTable(nodeMap), compressed);
+ *      graph = graph.permute(graph.bfsOrder());
+ *      int row = graph.row(id);
+ *      for (int nei : graph.neighbours(row, GraphCSR.MUTUAL)) graph.id(nei) ...
+ *      int mutualMM = graph.degree(row, GraphCSR.MUTUAL, 1);
+ */
+public class GraphCSR {
+    // indicators of relations, same as NodeMotif.getNei: s-1, r-2, m-3, n-4
+    public static final int SEND = 1;
+    public static final int RECEIVE = 2;
+    public static final int MUTUAL = 3;
+    public static final int ALL = 4;
+
+    // whether new graphs are stored in direct buffers instead of the heap
+    public static boolean offHeap = true;
+    // if not null, new graphs are stored in temporary files mapped from this directory
+    public static String mapDirectory = null;
+    // bytes written before the arrays: number of rows, whether rows are renumbered, entries of each relation
+    private static final int HEADER = 4 + 4 + 4 * 8;
+    // rows of a compressed graph from one row whose byte is kept to the next, 2^BLOCK
+    private static final int BLOCK = 4;
+
+    // number of rows, i.e. largest ID + 1
+    private final int n;
+    // offsets (longs) and targets (ints) of each relation, indexed by the indicator, null if compressed
+    private final Segments[] offsets = new Segments[5];
+    private final Segments[] targets = new Segments[5];
+    // number of neighbours of label 0 of each row (ints)
+    private final Segments[] splits = new Segments[5];
+    // call frequency of each entry of the all-neighbour relation
+    private Segments freqs;
+    // coded rows, and the byte where every 2^BLOCK-th row starts (longs), null if not compressed
+    private Segments codes;
+    private Segments blocks;
+    // entries of each relation, and whether no coded row has all neighbours coded, if compressed
+    private final long[] sizes = new long[5];
+    private boolean union;
+    // attributes of the nodes, by node ID
+    private final NodeTable table;
+    // rows that are nodes, and rows of the nodes with label 1
+    private final BitSet nodeRows;
+    private final BitSet mmRows;
+    // row of each node ID and node ID of each row, null if rows are not renumbered
+    private final Segments toRow;
+    private final Segments toId;
+    // coded rows kept decoded, by row * 8 + relation, and their least number of neighbours, see keepDecoded
+    private volatile HashMap<Long, int[]> decoded = null;
+    private int decodedDegree = Integer.MAX_VALUE;
+
+    /**
+     * Build the graph from organized nodes
+     *
+     * @param nodeMap HashMap of all the NodeMotifs, after organize()
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    public GraphCSR(NodeMotifHashMap nodeMap) throws IOException {
+        this(nodeMap, new NodeTable(nodeMap), false);
+    }
+
+    /**
+     * Build the graph from organized nodes, with the row of each node being its ID
+     *
+     * @param nodeMap HashMap of all the NodeMotifs, after organize()
+     * @param table   attributes of the same nodes
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    public GraphCSR(NodeMotifHashMap nodeMap, NodeTable table) throws IOException {
+        this(nodeMap, table, false);
+    }
+
+    /**
+     * Build the graph from organized nodes, with the row of each node being its ID
+     *
+     * @param nodeMap    HashMap of all the NodeMotifs, after organize()
+     * @param table      attributes of the same nodes
+     * @param compressed whether to code each row as it is built, so that the rows are never held uncoded
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    public GraphCSR(final NodeMotifHashMap nodeMap, final NodeTable table, boolean compressed) throws IOException {
+        this.table = table;
+        this.n = table.size();
+        this.nodeRows = new BitSet(this.n);
+        this.mmRows = new BitSet(this.n);
+        for (int id = 0; id < this.n; id++) {
+            this.nodeRows.set(id, table.label[id] >= 0);
+            this.mmRows.set(id, table.label[id] == 1);
+        }
+        this.toRow = null;
+        this.toId = null;
+        for (int id : nodeMap.nodes.keySet()) {
+            if (table.label[id] != 0 & table.label[id] != 1) {
+                throw new IllegalArgumentException("Label of node " + id + " is not 0 or 1: " + table.label[id]);
+            }
+        }
+
+        this.build(new Rows() {
+            public int degree(int row, int type) {
+                NodeMotif node = nodeMap.nodes.get(row);
+                return node == null ? 0 : node.getNei(type).size();
+            }
+
+            public void pack(int row, int type, long[] into) {
+                NodeMotif node = nodeMap.nodes.get(row);
+                if (node == null) return;
+                int k = 0;
+                for (int nei : node.getNei(type)) {
+                    if (!table.contains(nei)) {
+                        throw new IllegalArgumentException("Neighbour " + nei + " of node " + row + " is not a node");
+                    }
+                    Integer freq = type == ALL ? node.nListFreq.get(nei) : null;
+                    into[k++] = GraphCSR.pack(nei, freq == null ? 0 : freq);
+                }
+            }
+        }, compressed);
+    }
+
+    /**
+     * Copy of a graph with rows renumbered, or coded
+     *
+     * @param graph      the graph
+     * @param order      old row of each new row, or null to keep the rows
+     * @param compressed whether to code the rows of the copy
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    private GraphCSR(final GraphCSR graph, final int[] order, boolean compressed) throws IOException {
+        this.table = graph.table;
+        this.n = graph.n;
+        // new row of each old row
+        final int[] renumber = order == null ? null : new int[this.n];
+        if (order == null) {
+            this.nodeRows = graph.nodeRows;
+            this.mmRows = graph.mmRows;
+            this.toRow = graph.toRow;
+            this.toId = graph.toId;
+        } else {
+            this.nodeRows = new BitSet(this.n);
+            this.mmRows = new BitSet(this.n);
+            this.toRow = allocateInts(this.n);
+            this.toId = allocateInts(this.n);
+            Arrays.fill(renumber, -1);
+            for (int row = 0; row < this.n; row++) {
+                int old = order[row];
+                if (old < 0 || old >= this.n || renumber[old] >= 0) {
+                    throw new IllegalArgumentException("Order of rows is not a permutation of 0.." + (this.n - 1));
+                }
+                renumber[old] = row;
+                this.nodeRows.set(row, graph.nodeRows.get(old));
+                this.mmRows.set(row, graph.mmRows.get(old));
+                this.toId.putInt(row, graph.id(old));
+                this.toRow.putInt(graph.id(old), row);
+            }
+        }
+
+        this.build(new Rows() {
+            public int degree(int row, int type) {
+                return graph.degree(order == null ? row : order[row], type);
+            }
+
+            public void pack(int row, int type, long[] into) {
+                int old = order == null ? row : order[row];
+                int[] nei = graph.neighbours(old, type);
+                int[] freq = type == ALL ? graph.freqs(old) : null;
+                for (int k = 0; k < nei.length; k++) {
+                    into[k] = GraphCSR.pack(renumber == null ? nei[k] : renumber[nei[k]], freq == null ? 0 : freq[k]);
+                }
+            }
+        }, compressed);
+    }
+
+    /**
+     * Fill the rows, as offsets and targets, or coded one after the other
+     *
+     * @param rows       neighbours of each row
+     * @param compressed whether to code the rows
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    private void build(Rows rows, boolean compressed) throws IOException {
+        long[][] packed = new long[ALL + 1][16];
+        if (!compressed) {
+            // count row lengths first, then fill and sort each row
+            for (int type = SEND; type <= ALL; type++) {
+                this.offsets[type] = allocateLongs(this.n + 1);
+                for (int row = 0; row < this.n; row++) {
+                    this.offsets[type].putLong(row + 1, rows.degree(row, type));
+                }
+            }
+            this.allocateRows();
+            for (int row = 0; row < this.n; row++) {
+                for (int type = SEND; type <= ALL; type++) {
+                    packed[type] = room(packed[type], this.degree(row, type));
+                    rows.pack(row, type, packed[type]);
+                    this.fillRow(row, type, packed[type]);
+                }
+            }
+            return;
+        }
+
+        // size of the rows first, then code them, one row at a time
+        int[] degrees = new int[ALL + 1];
+        this.blocks = allocateLongs((this.n >>> BLOCK) + 1);
+        this.union = true;
+        for (int pass = 0; pass < 2; pass++) {
+            Segments code = this.codes;
+            long at = 0;
+            for (int row = 0; row < this.n; row++) {
+                if ((row & ((1 << BLOCK) - 1)) == 0) {
+                    this.blocks.putLong(row >>> BLOCK, at);
+                }
+                for (int type = SEND; type <= ALL; type++) {
+                    degrees[type] = rows.degree(row, type);
+                    packed[type] = room(packed[type], degrees[type]);
+                    rows.pack(row, type, packed[type]);
+                    Arrays.sort(packed[type], 0, degrees[type]);
+                    if (pass == 0) {
+                        this.sizes[type] += degrees[type];
+                    }
+                }
+                // all neighbours are the send-only, receive-only and mutual ones together after organize(),
+                //  in which case they are not coded again but merged from those parts when read
+                boolean all = !isUnion(packed, degrees);
+                this.union &= !all;
+                at = this.codeRow(packed, degrees, all, code, at);
+            }
+            if (pass == 0) {
+                this.codes = allocate(at);
+            }
+        }
+    }
+
+    // helper function to check whether all neighbours of a row, sorted from pack(), are those of the other relations
+    private static boolean isUnion(long[][] packed, int[] degrees) {
+        int[] at = new int[MUTUAL + 1];
+        for (int k = 0; k < degrees[ALL]; k++) {
+            int nei = (int) (packed[ALL][k] >>> 32);
+            int found = 0;
+            for (int type = SEND; type <= MUTUAL; type++) {
+                if (at[type] < degrees[type] && (int) (packed[type][at[type]] >>> 32) == nei) {
+                    at[type]++;
+                    found++;
+                }
+            }
+            if (found != 1) {
+                return false;
+            }
+        }
+        return at[SEND] == degrees[SEND] && at[RECEIVE] == degrees[RECEIVE] && at[MUTUAL] == degrees[MUTUAL];
+    }
+
+    // helper function to check whether each row of all neighbours is the union of the other three relations
+    private static boolean isUnion(GraphCSR graph) {
+        for (int row = 0; row < graph.n; row++) {
+            for (int label = 0; label <= 1; label++) {
+                int[] all = graph.neighbours(row, ALL, label);
+                int[] union = new int[all.length];
+                int count = 0;
+                for (int type = SEND; type <= MUTUAL; type++) {
+                    if (count + graph.degree(row, type, label) > union.length) {
+                        return false;
+                    }
+                    count += graph.neighbours(row, type, label, union, count);
+                }
+                Arrays.sort(union);
+                if (count < all.length || !Arrays.equals(all, union)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Graph mapped read-only from a file written by write()
+     *
+     * @param channel  the file
+     * @param position where the graph starts in the file
+     * @param table    attributes of the nodes, as when the graph was written
+     * @throws IOException if the file cannot be mapped or does not match the table
+     */
+    private GraphCSR(FileChannel channel, long position, NodeTable table) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, position, HEADER);
+        this.table = table;
+        this.n = header.getInt();
+        boolean renumbered = header.getInt() != 0;
+        if (this.n != table.size()) {
+            throw new IOException("Graph of " + this.n + " rows does not match a table of " + table.size() + " nodes");
+        }
+        long pos = position + HEADER;
+        for (int type = SEND; type <= ALL; type++) {
+            long size = header.getLong();
+            this.offsets[type] = Segments.map(channel, pos, 8L * (this.n + 1));
+            pos += 8L * (this.n + 1);
+            this.splits[type] = Segments.map(channel, pos, 4L * this.n);
+            pos += 4L * this.n;
+            this.targets[type] = Segments.map(channel, pos, 4L * size);
+            pos += 4L * size;
+        }
+        this.freqs = Segments.map(channel, pos, this.targets[ALL].size());
+        pos += this.targets[ALL].size();
+        if (renumbered) {
+            this.toRow = Segments.map(channel, pos, 4L * this.n);
+            this.toId = Segments.map(channel, pos + 4L * this.n, 4L * this.n);
+            pos += 8L * this.n;
+        } else {
+            this.toRow = null;
+            this.toId = null;
+        }
+        ByteBuffer labels = channel.map(FileChannel.MapMode.READ_ONLY, pos, this.n);
+        this.nodeRows = new BitSet(this.n);
+        this.mmRows = new BitSet(this.n);
+        for (int row = 0; row < this.n; row++) {
+            this.nodeRows.set(row, labels.get(row) >= 0);
+            this.mmRows.set(row, labels.get(row) == 1);
+        }
+    }
+
+    /**
+     * @param channel  file written by write()
+     * @param position where the graph starts in the file
+     * @param table    attributes of the nodes, as when the graph was written
+     * @return the graph, with its arrays mapped read-only from the file
+     * @throws IOException if the file cannot be mapped or does not match the table
+     */
+    public static GraphCSR map(FileChannel channel, long position, NodeTable table) throws IOException {
+        return new GraphCSR(channel, position, table);
+    }
+
+    /**
+     * Write the graph to a stream, bytes() long: number of rows, whether rows are renumbered,
+     *  number of entries of each relation, then the arrays (big-endian), with rows not compressed
+     *
+     * @param out output stream
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.n);
+        out.writeInt(this.toId == null ? 0 : 1);
+        for (int type = SEND; type <= ALL; type++) {
+            out.writeLong(this.size(type));
+        }
+        // rows written decoded, offsets summed from the degrees, so that the file is the same for a compressed graph
+        for (int type = SEND; type <= ALL; type++) {
+            long offset = 0;
+            out.writeLong(offset);
+            for (int row = 0; row < this.n; row++) {
+                offset += this.degree(row, type);
+                out.writeLong(offset);
+            }
+            for (int row = 0; row < this.n; row++) {
+                out.writeInt(this.degree(row, type, 0));
+            }
+            for (int row = 0; row < this.n; row++) {
+                for (int nei : this.neighbours(row, type)) {
+                    out.writeInt(nei);
+                }
+            }
+        }
+        for (int row = 0; row < this.n; row++) {
+            for (int freq : this.freqs(row)) {
+                out.writeInt(freq);
+            }
+        }
+        if (this.toId != null) {
+            writeInts(out, this.toRow);
+            writeInts(out, this.toId);
+        }
+        for (int row = 0; row < this.n; row++) {
+            out.writeByte(this.label(row));
+        }
+    }
+
+    // number of bytes taken by write()
+    public long bytes() {
+        long bytes = HEADER + 4L * this.size(ALL) + (this.toId == null ? 0 : 8L * this.n) + this.n;
+        for (int type = SEND; type <= ALL; type++) {
+            bytes += 8L * (this.n + 1) + 4L * this.n + 4L * this.size(type);
+        }
+        return bytes;
+    }
+
+    // helper function to write a whole array of ints
+    private static void writeInts(DataOutputStream out, Segments ints) throws IOException {
+        for (long k = 0; k < ints.size() / 4; k++) {
+            out.writeInt(ints.getInt(k));
+        }
+    }
+
+    /**
+     * Allocate a zeroed array, in the heap, off the heap, or in a mapped file, in segments
+     *
+     * @param bytes number of bytes
+     * @return the array
+     * @throws IOException if the array is mapped and the file cannot be created
+     */
+    private static Segments allocate(long bytes) throws IOException {
+        ByteBuffer[] segments = new ByteBuffer[Segments.count(bytes)];
+        if (mapDirectory != null) {
+            File file = File.createTempFile("graph", ".csr", new File(mapDirectory));
+            file.deleteOnExit();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(bytes);
+                for (int i = 0; i < segments.length; i++) {
+                    segments[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) i << Segments.SEGMENT,
+                            Segments.length(bytes, i)).order(ByteOrder.nativeOrder());
+                }
+            } finally {
+                // the mappings stay valid after the file is closed
+                raf.close();
+            }
+        } else {
+            for (int i = 0; i < segments.length; i++) {
+                int length = Segments.length(bytes, i);
+                ByteBuffer segment = offHeap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+                segments[i] = segment.order(ByteOrder.nativeOrder());
+            }
+        }
+        return new Segments(segments, bytes);
+    }
+
+    // helper function to allocate a zeroed array of ints
+    private static Segments allocateInts(long count) throws IOException {
+        return allocate(4L * count);
+    }
+
+    // helper function to allocate a zeroed array of longs
+    private static Segments allocateLongs(long count) throws IOException {
+        return allocate(8L * count);
+    }
+
+    // helper function to turn row lengths into offsets and allocate the rows
+    private void allocateRows() throws IOException {
+        for (int type = SEND; type <= ALL; type++) {
+            Segments offset = this.offsets[type];
+            for (int row = 0; row < this.n; row++) {
+                offset.putLong(row + 1, offset.getLong(row + 1) + offset.getLong(row));
+            }
+            this.targets[type] = allocateInts(offset.getLong(this.n));
+            // rows that are not nodes are empty, filled rows set their own split
+            this.splits[type] = allocateInts(this.n);
+        }
+        this.freqs = allocateInts(this.offsets[ALL].getLong(this.n));
+    }
+
+    /**
+     * Code a row: its length in bytes (doubled, plus 1 if all neighbours are coded too, or 0 if the row is empty),
+     *  the number of neighbours of each label of each relation, the bytes of each part that is not empty,
+     *  the parts, and the call frequencies of all neighbours, label 0 first
+     *
+     * @param packed  neighbours and frequencies of each relation, from pack(), sorted
+     * @param degrees number of neighbours of each relation
+     * @param all     whether to code all neighbours, if they are not the other relations together
+     * @param code    array to write into, or null to only count the bytes
+     * @param at      byte to write at
+     * @return byte after the row
+     */
+    private long codeRow(long[][] packed, int[] degrees, boolean all, Segments code, long at) {
+        if (degrees[SEND] + degrees[RECEIVE] + degrees[MUTUAL] + degrees[ALL] == 0) {
+            return putVarint(code, at, 0);
+        }
+        long length = this.codeParts(packed, degrees, all, null, 0);
+        at = putVarint(code, at, length * 2 + (all ? 1 : 0));
+        return code == null ? at + length : this.codeParts(packed, degrees, all, code, at);
+    }
+
+    // helper function to code a row but its length, see codeRow
+    private long codeParts(long[][] packed, int[] degrees, boolean all, Segments code, long at) {
+        int last = all ? ALL : MUTUAL;
+        for (int type = SEND; type <= last; type++) {
+            for (int label = 0; label <= 1; label++) {
+                at = putVarint(code, at, this.count(packed[type], degrees[type], label));
+            }
+        }
+        for (int type = SEND; type <= last; type++) {
+            for (int label = 0; label <= 1; label++) {
+                if (this.count(packed[type], degrees[type], label) > 0) {
+                    at = putVarint(code, at, this.gaps(packed[type], degrees[type], label, null, 0));
+                }
+            }
+        }
+        for (int type = SEND; type <= last; type++) {
+            for (int label = 0; label <= 1; label++) {
+                at = this.gaps(packed[type], degrees[type], label, code, at);
+            }
+        }
+        for (int label = 0; label <= 1; label++) {
+            for (int i = 0; i < degrees[ALL]; i++) {
+                if (this.mmRows.get((int) (packed[ALL][i] >>> 32)) == (label == 1)) {
+                    at = putVarint(code, at, packed[ALL][i] & 0xffffffffL);
+                }
+            }
+        }
+        return at;
+    }
+
+    // helper function to count the neighbours of a label in a row from pack()
+    private int count(long[] packed, int degree, int label) {
+        int count = 0;
+        for (int i = 0; i < degree; i++) {
+            if (this.mmRows.get((int) (packed[i] >>> 32)) == (label == 1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // helper function to code the neighbours of a label in a sorted row from pack() by gaps, see codeRow
+    private long gaps(long[] packed, int degree, int label, Segments code, long at) {
+        int previous = 0;
+        for (int i = 0; i < degree; i++) {
+            int nei = (int) (packed[i] >>> 32);
+            if (this.mmRows.get(nei) == (label == 1)) {
+                at = putVarint(code, at, nei - previous);
+                previous = nei;
+            }
+        }
+        return at;
+    }
+
+    // helper function to write a value in variable-length bytes, or only count them if [code] is null
+    private static long putVarint(Segments code, long at, long value) {
+        while ((value & ~0x7fL) != 0) {
+            if (code != null) code.put(at, (byte) (value | 0x80));
+            at++;
+            value >>>= 7;
+        }
+        if (code != null) code.put(at, (byte) value);
+        return at + 1;
+    }
+
+    // helper function to read the value in variable-length bytes at byte [at] of the coded rows
+    private long varint(long at) {
+        Segments code = this.codes;
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = code.get(at++);
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    // helper function to get the byte after the value in variable-length bytes at byte [at] of the coded rows
+    private long skip(long at) {
+        Segments code = this.codes;
+        while (code.get(at) < 0) {
+            at++;
+        }
+        return at + 1;
+    }
+
+    // helper function to get the byte where a coded row starts, skipping the rows of its block before it
+    private long rowStart(int row) {
+        long at = this.blocks.getLong(row >>> BLOCK);
+        for (int r = row & -(1 << BLOCK); r < row; r++) {
+            long head = varint(at);
+            at = skip(at) + (head >>> 1);
+        }
+        return at;
+    }
+
+    // helper function to check whether all neighbours of a coded row are coded, instead of merged from the others
+    private boolean codesAll(int row) {
+        return (varint(rowStart(row)) & 1) != 0;
+    }
+
+    /**
+     * @param row   the row
+     * @param type  relation indicator
+     * @param label label of the neighbours, or negative for both
+     * @return number of neighbours of a coded row
+     */
+    private int codedDegree(int row, int type, int label) {
+        long at = rowStart(row);
+        long head = varint(at);
+        if (head == 0) return 0;
+        at = skip(at);
+        // parts of the relation, or of the other three if all neighbours are not coded
+        boolean merged = type == ALL && (head & 1) == 0;
+        int from = merged ? 0 : (type - 1) * 2;
+        int to = merged ? 6 : from + 2;
+        int degree = 0;
+        for (int i = 0; i < to; i++) {
+            if (i >= from && (label < 0 || (i & 1) == label)) {
+                degree += varint(at);
+            }
+            at = skip(at);
+        }
+        return degree;
+    }
+
+    /**
+     * @param row  the row, not empty
+     * @param part (type - 1) * 2 + label of a part coded in the row, or Integer.MAX_VALUE for the call frequencies
+     * @return byte where the part of a coded row starts
+     */
+    private long codedPart(int row, int part) {
+        long at = rowStart(row);
+        int parts = (varint(at) & 1) == 0 ? 6 : 8;
+        at = skip(at);
+        // parts that are not empty have their bytes coded
+        int filled = 0;
+        for (int i = 0; i < parts; i++) {
+            if (varint(at) > 0) filled |= 1 << i;
+            at = skip(at);
+        }
+        long before = 0;
+        for (int i = 0; i < parts; i++) {
+            if ((filled & (1 << i)) != 0) {
+                if (i < part) before += varint(at);
+                at = skip(at);
+            }
+        }
+        return at + before;
+    }
+
+    // helper function to decode [count] values coded by gaps at byte [at] of the coded rows, into [into] from [offset]
+    private int decode(long at, int count, int[] into, int offset) {
+        Segments code = this.codes;
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int b = code.get(at++);
+            int gap = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = code.get(at++);
+                gap |= (b & 0x7f) << shift;
+            }
+            value += gap;
+            into[offset + i] = value;
+        }
+        return count;
+    }
+
+    // pack a neighbour and its frequency, so that sorting sorts by neighbour
+    private static long pack(int nei, int freq) {
+        return ((long) nei << 32) | (freq & 0xffffffffL);
+    }
+
+    // helper function to make sure a row has room for [size] elements
+    private static long[] room(long[] row, int size) {
+        return row.length >= size ? row : new long[Math.max(size, row.length * 2)];
+    }
+
+    /**
+     * Sort one row and write it with neighbours of label 0 first, then those of label 1
+     *
+     * @param row    the row
+     * @param type   relation indicator
+     * @param packed neighbours and frequencies of the row, from pack(), in its first degree(row, type) elements
+     */
+    private void fillRow(int row, int type, long[] packed) {
+        long from = this.offsets[type].getLong(row);
+        int degree = (int) (this.offsets[type].getLong(row + 1) - from);
+        Arrays.sort(packed, 0, degree);
+        Segments target = this.targets[type];
+        long k = from;
+        for (int label = 0; label <= 1; label++) {
+            if (label == 1) {
+                this.splits[type].putInt(row, (int) (k - from));
+            }
+            for (int i = 0; i < degree; i++) {
+                int nei = (int) (packed[i] >>> 32);
+                if (this.mmRows.get(nei) == (label == 1)) {
+                    if (type == ALL) {
+                        this.freqs.putInt(k, (int) packed[i]);
+                    }
+                    target.putInt(k++, nei);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param order old row of each new row, a permutation of all rows
+     * @return copy of the graph with rows renumbered, coded if the rows of this graph are
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    public GraphCSR permute(int[] order) throws IOException {
+        return new GraphCSR(this, order, this.isCompressed());
+    }
+
+    /**
+     * @return copy of the graph with the rows coded, sharing the labels and row numbers, or the graph if they are
+     * @throws IOException if the graph is mapped and the files cannot be created
+     */
+    public GraphCSR compress() throws IOException {
+        return this.isCompressed() ? this : new GraphCSR(this, null, true);
+    }
+
+    /**
+     * Keep the coded rows of at least [minDegree] neighbours decoded, so that countCommon and contains search in them
+     *  instead of decoding them each time, e.g. for the rows of hubs. Graphs not compressed are left as they are.
+     *
+     * @param minDegree least number of neighbours of a row of a relation to keep decoded
+     */
+    public synchronized void keepDecoded(int minDegree) {
+        if (!this.isCompressed() || minDegree >= this.decodedDegree) {
+            return;
+        }
+        HashMap<Long, int[]> decoded = new HashMap<Long, int[]>();
+        for (int row = 0; row < this.n; row++) {
+            for (int type = SEND; type <= ALL; type++) {
+                // all neighbours merged from the other relations are searched in those
+                if (this.degree(row, type) >= minDegree && (type != ALL || this.codesAll(row))) {
+                    decoded.put((long) row * 8 + type, this.neighbours(row, type));
+                }
+            }
+        }
+        this.decodedDegree = minDegree;
+        this.decoded = decoded;
+    }
+
+    // whether the rows are coded
+    public boolean isCompressed() {
+        return this.codes != null;
+    }
+
+    // whether each row of all neighbours is the union of the send-only, receive-only and mutual ones, which do not overlap
+    public boolean isUnion() {
+        return this.isCompressed() ? this.union : isUnion(this);
+    }
+
+    /**
+     * @return rows by decreasing number of neighbours, rows that are not nodes last
+     */
+    public int[] degreeOrder() {
+        long[] keys = new long[this.n];
+        for (int row = 0; row < this.n; row++) {
+            // nodes sort by decreasing degree, then the rest
+            long rank = this.label(row) < 0 ? Integer.MAX_VALUE : -(long) this.degree(row, ALL);
+            keys[row] = (rank << 32) | row;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[this.n];
+        for (int i = 0; i < this.n; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * Breadth-first order over all neighbours, each connected component starting from its node with most neighbours,
+     *  so that the neighbours of a node, and their neighbours, have close rows
+     *
+     * @return rows in breadth-first order, rows that are not nodes last
+     */
+    public int[] bfsOrder() {
+        int[] order = new int[this.n];
+        boolean[] visited = new boolean[this.n];
+        int[] nei = new int[16];
+        int size = 0;
+        for (int root : this.degreeOrder()) {
+            if (visited[root] | this.label(root) < 0) {
+                continue;
+            }
+            visited[root] = true;
+            // the order itself is the queue
+            int head = size;
+            order[size++] = root;
+            while (head < size) {
+                int row = order[head++];
+                int degree = this.degree(row, ALL);
+                if (nei.length < degree) {
+                    nei = new int[degree];
+                }
+                int count = this.neighbours(row, ALL, 0, nei, 0);
+                count += this.neighbours(row, ALL, 1, nei, count);
+                for (int k = 0; k < count; k++) {
+                    if (!visited[nei[k]]) {
+                        visited[nei[k]] = true;
+                        order[size++] = nei[k];
+                    }
+                }
+            }
+        }
+        for (int row = 0; row < this.n; row++) {
+            if (this.label(row) < 0) {
+                order[size++] = row;
+            }
+        }
+        return order;
+    }
+
+    // row of a node ID
+    public int row(int id) {
+        return this.toRow == null || id < 0 || id >= this.n ? id : this.toRow.getInt(id);
+    }
+
+    // node ID of a row
+    public int id(int row) {
+        return this.toId == null ? row : this.toId.getInt(row);
+    }
+
+    // number of rows, i.e. largest ID + 1
+    public int size() {
+        return this.n;
+    }
+
+    // first entry of row [row] in relation [type], not for compressed graphs
+    public long start(int row, int type) {
+        return row < this.n ? this.offsets(type).getLong(row) : 0;
+    }
+
+    // entry after the last one of row [row] in relation [type], not for compressed graphs
+    public long end(int row, int type) {
+        return row < this.n ? this.offsets(type).getLong(row + 1) : 0;
+    }
+
+    // row of the neighbour at entry k of relation [type], not for compressed graphs (see neighbours)
+    public int target(int type, long k) {
+        return this.offsets(type) == null ? 0 : this.targets[type].getInt(k);
+    }
+
+    /**
+     * Copy the rows of the neighbours of a row with a label, decoding them if the graph is compressed
+     *
+     * @param row   row of the node
+     * @param type  relation indicator
+     * @param label label of the neighbours
+     * @param into  array with room for degree(row, type, label) elements from [at]
+     * @param at    first element to copy into
+     * @return number of neighbours copied, i.e. degree(row, type, label)
+     */
+    public int neighbours(int row, int type, int label, int[] into, int at) {
+        int count = degree(row, type, label);
+        if (count == 0) return 0;
+        if (this.codes == null) {
+            Segments target = this.targets[type];
+            long from = start(row, type, label);
+            for (int i = 0; i < count; i++) {
+                into[at + i] = target.getInt(from + i);
+            }
+        } else if (type != ALL || this.codesAll(row)) {
+            decode(codedPart(row, (type - 1) * 2 + label), count, into, at);
+        } else {
+            // all neighbours of a coded row, merged from the other relations
+            int k = at;
+            for (int t = SEND; t <= MUTUAL; t++) {
+                k += neighbours(row, t, label, into, k);
+            }
+            Arrays.sort(into, at, k);
+        }
+        return count;
+    }
+
+    // rows of the neighbours of [row] in relation [type] with the given label, in ascending order
+    public int[] neighbours(int row, int type, int label) {
+        int[] into = new int[degree(row, type, label)];
+        neighbours(row, type, label, into, 0);
+        return into;
+    }
+
+    // rows of the neighbours of [row] in relation [type], in the order of the entries: label 0 first, then label 1
+    public int[] neighbours(int row, int type) {
+        int[] into = new int[degree(row, type)];
+        int count = neighbours(row, type, 0, into, 0);
+        neighbours(row, type, 1, into, count);
+        return into;
+    }
+
+    // first entry of row [row] in relation [type] with a neighbour of the given label, not for compressed graphs
+    public long start(int row, int type, int label) {
+        if (row >= this.n) return 0;
+        long start = this.offsets(type).getLong(row);
+        return label == 0 ? start : start + this.splits[type].getInt(row);
+    }
+
+    // entry after the last one of row [row] in relation [type] with a neighbour of the given label, not compressed
+    public long end(int row, int type, int label) {
+        if (row >= this.n) return 0;
+        Segments offset = this.offsets(type);
+        return label == 0 ? offset.getLong(row) + this.splits[type].getInt(row) : offset.getLong(row + 1);
+    }
+
+    // number of neighbours of [row] in relation [type]
+    public int degree(int row, int type) {
+        if (this.codes != null) {
+            return row < this.n ? this.codedDegree(row, type, -1) : 0;
+        }
+        return (int) (end(row, type) - start(row, type));
+    }
+
+    // number of neighbours of [row] in relation [type] with the given label
+    public int degree(int row, int type, int label) {
+        if (row >= this.n) return 0;
+        if (this.codes != null) {
+            return this.codedDegree(row, type, label);
+        }
+        int label0 = this.splits[type].getInt(row);
+        return label == 0 ? label0 : this.degree(row, type) - label0;
+    }
+
+    /**
+     * @param row  row of the node
+     * @param type relation indicator
+     * @param nei  row of the other node
+     * @return whether [nei] is a neighbour of [row] in relation [type]
+     */
+    public boolean contains(int row, int type, int nei) {
+        return find(row, type, nei) >= 0;
+    }
+
+    /**
+     * @param row   row of the node
+     * @param type  relation indicator
+     * @param label label of the nodes in the list
+     * @param list  sorted rows of nodes with that label, possibly with replicates
+     * @return number of elements of the list that are neighbours of [row] in relation [type]
+     */
+    public int countCommon(int row, int type, int label, int[] list) {
+        if (this.codes == null) {
+            long from = start(row, type, label);
+            long to = end(row, type, label);
+            IntBuffer target = this.targets[type].ints(from, to);
+            if (target == null) {
+                // a row across two segments is copied first
+                int[] part = neighbours(row, type, label);
+                return SortedIntSet.countCommon(list, 0, list.length, part, 0, part.length);
+            }
+            int first = (int) (from & (Segments.MASK >>> 2));
+            return SortedIntSet.countCommon(list, 0, list.length, target, first, first + (int) (to - from));
+        }
+        int left = degree(row, type, label);
+        if (left == 0) {
+            return 0;
+        }
+        if (type == ALL && !this.codesAll(row)) {
+            // all neighbours of a coded row are the other relations, which do not overlap
+            int count = 0;
+            for (int t = SEND; t <= MUTUAL; t++) {
+                count += countCommon(row, t, label, list);
+            }
+            return count;
+        }
+        int[] plain = this.decoded(row, type);
+        if (plain != null) {
+            int first = label == 0 ? 0 : this.degree(row, type, 0);
+            return SortedIntSet.countCommon(list, 0, list.length, plain, first, first + left);
+        }
+        // merge the list with the row, decoded as the merge goes
+        Segments code = this.codes;
+        long at = codedPart(row, (type - 1) * 2 + label);
+        int value = 0;
+        int count = 0;
+        int i = 0;
+        while (left > 0 && i < list.length) {
+            int b = code.get(at++);
+            int gap = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = code.get(at++);
+                gap |= (b & 0x7f) << shift;
+            }
+            value += gap;
+            left--;
+            while (i < list.length && list[i] < value) {
+                i++;
+            }
+            while (i < list.length && list[i] == value) {
+                count++;
+                i++;
+            }
+        }
+        return count;
+    }
+
+    // label of a row, -1 if the row is not a node
+    public int label(int row) {
+        if (row < 0 || row >= this.n || !this.nodeRows.get(row)) {
+            return -1;
+        }
+        return this.mmRows.get(row) ? 1 : 0;
+    }
+
+    // whether a row is a node of label 1
+    public boolean isMM(int row) {
+        return this.mmRows.get(row);
+    }
+
+    // attributes of the nodes, by node ID
+    public NodeTable table() {
+        return this.table;
+    }
+
+    // call frequency of entry k of the all-neighbour relation, not for compressed graphs (see freqs)
+    public int freq(long k) {
+        return this.offsets(ALL) == null ? 0 : this.freqs.getInt(k);
+    }
+
+    /**
+     * @param row row of the node
+     * @return call frequency of each neighbour of all relations, in the order of neighbours(row, ALL)
+     */
+    public int[] freqs(int row) {
+        int[] freqs = new int[degree(row, ALL)];
+        if (freqs.length == 0) {
+            return freqs;
+        }
+        if (this.codes == null) {
+            long from = start(row, ALL);
+            for (int k = 0; k < freqs.length; k++) {
+                freqs[k] = this.freqs.getInt(from + k);
+            }
+            return freqs;
+        }
+        long at = codedPart(row, Integer.MAX_VALUE);
+        for (int k = 0; k < freqs.length; k++) {
+            freqs[k] = (int) varint(at);
+            at = skip(at);
+        }
+        return freqs;
+    }
+
+    /**
+     * @param row row of the node
+     * @param nei row of the other node
+     * @return number of calls between the two nodes, 0 if they are not neighbours
+     */
+    public int freq(int row, int nei) {
+        long k = find(row, ALL, nei);
+        if (k < 0) {
+            return 0;
+        }
+        return this.codes == null ? this.freqs.getInt(k) : this.freqs(row)[(int) k];
+    }
+
+    // helper function to find the entry of [nei] in row [row], or its place in a coded row, negative if not found
+    private long find(int row, int type, int nei) {
+        int label = label(nei);
+        if (label < 0) return -1;
+        if (this.codes != null) {
+            // the part of a coded row is decoded first, unless it is kept decoded
+            int first = label == 0 ? 0 : degree(row, type, 0);
+            int[] plain = this.decoded(row, type);
+            int k = plain != null ? Arrays.binarySearch(plain, first, first + degree(row, type, label), nei) - first
+                    : Arrays.binarySearch(neighbours(row, type, label), nei);
+            return k < 0 ? -1 : first + k;
+        }
+        Segments target = this.targets[type];
+        long lo = start(row, type, label);
+        long hi = end(row, type, label) - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int value = target.getInt(mid);
+            if (value < nei) {
+                lo = mid + 1;
+            } else if (value > nei) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // helper function to get a coded row kept decoded, null if it is not
+    private int[] decoded(int row, int type) {
+        HashMap<Long, int[]> decoded = this.decoded;
+        if (decoded == null || this.degree(row, type) < this.decodedDegree) {
+            return null;
+        }
+        return decoded.get((long) row * 8 + type);
+    }
+
+    // helper function to get the offsets of a relation, which a compressed graph does not have
+    private Segments offsets(int type) {
+        if (this.codes != null) {
+            throw new UnsupportedOperationException("Entries of a compressed graph are not numbered, see neighbours()");
+        }
+        return this.offsets[type];
+    }
+
+    // helper function to get the number of entries of a relation
+    private long size(int type) {
+        return this.codes != null ? this.sizes[type] : this.offsets[type].getLong(this.n);
+    }
+
+    // number of entries over all relations
+    public long entries() {
+        long total = 0;
+        for (int type = SEND; type <= ALL; type++) {
+            total += this.size(type);
+        }
+        return total;
+    }
+
+    // number of bytes taken by the rows of all relations, i.e. offsets, splits, targets and call frequencies,
+    //  or the coded rows and where they start
+    public long rowBytes() {
+        if (this.codes != null) {
+            return this.codes.size() + this.blocks.size();
+        }
+        long total = this.freqs.size();
+        for (int type = SEND; type <= ALL; type++) {
+            total += this.offsets[type].size() + this.splits[type].size() + this.targets[type].size();
+        }
+        return total;
+    }
+
+    // whether the arrays are held outside the heap
+    public boolean isDirect() {
+        return this.codes != null ? this.blocks.isDirect() : this.offsets[ALL].isDirect();
+    }
+
+    /**
+     * Neighbours of each row of a graph being built
+     */
+    private interface Rows {
+        // number of neighbours of [row] in relation [type]
+        int degree(int row, int type);
+
+        // neighbours of [row] in relation [type] from pack(), with the call frequencies of all neighbours
+        void pack(int row, int type, long[] into);
+    }
+}
@@ -0,0 +1,132 @@
+package data;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check of the motif counts of ParallelMotifCounter against counting one node at a time from the organized lists
+ *  (motifCount_wlabel(nodeMap), then motifCount_neighbour(nodeMap)), on a random graph with both labels
+ *
+ * The graph is counted as it is built, renumbered in breadth-first order, and compressed as it is built then
+ *  renumbered, each with the triangles found once, with the triangles found at each node (no room for the
+ *  counters), and with the wedges of each node, walking all rows or searching the rows of the hubs
+ *  (WedgeCounter.hubDegree) in those of the node. Motif counts have to be the same, sums of neighbour motifs the
+ *  same up to the order of summation.
+ *
+ * Usage:
+ *      java data.MotifCountCheck [nodes] [calls] [threads]
+ */
+public class MotifCountCheck {
+    // largest relative difference of the sums of neighbour motifs
+    private static final double TOLERANCE = 1e-12;
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int nThreads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        NodeMotifHashMap nodeMap = randomGraph(n, calls, new Random(1));
+
+        // one node at a time from the lists
+        int[][] motif = new int[n][];
+        double[][][] sums = new double[n][][];
+        for (int id = 0; id < n; id++) {
+            nodeMap.nodes.get(id).motifCount_wlabel(nodeMap);
+        }
+        for (int id = 0; id < n; id++) {
+            NodeMotifwithColorNeighbour node = nodeMap.nodes.get(id);
+            node.motifCount_neighbour(nodeMap);
+            motif[id] = node.motif;
+            sums[id] = sums(node);
+        }
+
+        GraphCSR graph = new GraphCSR(nodeMap, new NodeTable(nodeMap));
+        GraphCSR coded = new GraphCSR(nodeMap, graph.table(), true);
+        GraphCSR[] graphs = {graph, graph.permute(graph.bfsOrder()), coded.permute(coded.bfsOrder())};
+        String[] names = {"as built", "breadth-first", "compressed"};
+        boolean useTriangles = ParallelMotifCounter.useTriangles;
+        long maxCountBytes = TriangleCounter.maxCountBytes;
+        int hubDegree = WedgeCounter.hubDegree;
+        String[] ways = {"triangles", "triangles at each node", "wedges", "wedges through hubs"};
+        int failed = 0;
+        for (int g = 0; g < graphs.length; g++) {
+            for (int t = 0; t < ways.length; t++) {
+                ParallelMotifCounter.useTriangles = t < 2;
+                TriangleCounter.maxCountBytes = t == 0 ? maxCountBytes : 0;
+                // the hubs have about calls / 100 neighbours of each relation and label 0, other nodes a few
+                WedgeCounter.hubDegree = t == 3 ? Math.max(1, calls / 200) : 0;
+                ParallelMotifCounter counter = new ParallelMotifCounter(graphs[g], nodeMap, nThreads);
+                counter.countMotifs();
+                counter.countNeighbourMotifs();
+                counter.shutdown();
+
+                int wrong = 0;
+                for (int id = 0; id < n; id++) {
+                    NodeMotifwithColorNeighbour node = nodeMap.nodes.get(id);
+                    if (!Arrays.equals(motif[id], node.motif) || !close(sums[id], sums(node))) {
+                        wrong++;
+                    }
+                }
+                System.out.println(names[g] + ", " + ways[t] + ": " + wrong + " nodes differ");
+                failed += wrong;
+            }
+        }
+        ParallelMotifCounter.useTriangles = useTriangles;
+        TriangleCounter.maxCountBytes = maxCountBytes;
+        WedgeCounter.hubDegree = hubDegree;
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Random organized nodes, a quarter of them with label 1, calls between random pairs
+     *  and to a few hubs with a tenth of the calls
+     *
+     * @param n     number of nodes
+     * @param calls number of calls
+     * @param rand  random numbers
+     * @return the nodes
+     */
+    static NodeMotifHashMap randomGraph(int n, int calls, Random rand) {
+        NodeMotifHashMap nodeMap = new NodeMotifHashMap();
+        for (int id = 0; id < n; id++) {
+            int label = rand.nextInt(4) == 0 ? 1 : 0;
+            nodeMap.nodes.put(id, new NodeMotifwithColorNeighbour(String.valueOf(id), id, 0, 0, label));
+        }
+        for (int k = 0; k < calls; k++) {
+            int s = rand.nextInt(n);
+            int r = k % 10 == 0 ? rand.nextInt(3) : rand.nextInt(n);
+            if (rand.nextBoolean()) {
+                int swap = s;
+                s = r;
+                r = swap;
+            }
+            nodeMap.nodes.get(s).sendto(r, nodeMap.nodes.get(r).label == 1);
+            nodeMap.nodes.get(r).recfrom(s, nodeMap.nodes.get(s).label == 1);
+        }
+        for (int id = 0; id < n; id++) {
+            nodeMap.nodes.get(id).organize();
+        }
+        return nodeMap;
+    }
+
+    // helper function to get the sums of neighbour motifs of a node
+    private static double[][] sums(NodeMotifwithNeighbour node) {
+        return new double[][]{node.motif_from_in, node.motif_from_out, node.motif_from_mut,
+                node.motif_from_no, node.motif_from_yes};
+    }
+
+    // helper function to compare sums of neighbour motifs
+    private static boolean close(double[][] a, double[][] b) {
+        for (int j = 0; j < a.length; j++) {
+            for (int i = 0; i < a[j].length; i++) {
+                if (Math.abs(a[j][i] - b[j][i]) > TOLERANCE * Math.max(1, Math.abs(a[j][i]))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
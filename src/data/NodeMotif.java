@@ -1,10 +1,11 @@
 package data;
 
-import com.google.common.collect.Sets;
+import util.SortedIntSet;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
@@ -49,8 +50,8 @@ public class NodeMotif {
     // communication frequency for all contact
     public HashMap<Integer, Integer> nListFreq = new HashMap<Integer, Integer>();
 
-    // Motif counts
-    public HashMap<Integer, Integer> motif = new HashMap<Integer, Integer>();
+    // Motif counts by index, 121 of them (120 once in the final order, see MotifOrder), null until counted
+    public int[] motif;
 
     /**
      * function to remove all lists, but save the label and y
@@ -68,6 +69,7 @@ public class NodeMotif {
         this.rListMM = new HashSet<Integer>();
         this.mListMM = new HashSet<Integer>();
         this.nListMM = new HashSet<Integer>();
+        this.nListFreq = new HashMap<Integer, Integer>();
     }
 
     /**
@@ -82,6 +84,19 @@ public class NodeMotif {
         }
     }
 
+    /**
+     * helper function to count several calls at once
+     * @param id the index of the other node
+     * @param count number of calls
+     */
+    public void countFreq(int id, int count) {
+        if (this.nListFreq.get(id) != null) {
+            this.nListFreq.put(id, this.nListFreq.get(id) + count);
+        } else {
+            this.nListFreq.put(id, count);
+        }
+    }
+
 
     public NodeMotif(){
         this.swipe();
@@ -164,6 +179,32 @@ public class NodeMotif {
         }
     }
 
+    /**
+     * function to count outgoing calls to the same node at once
+     * @param n the index of the other node
+     * @param MMuser whether the other node is MM user
+     * @param count number of calls
+     */
+    public void sendto(Integer n, boolean MMuser, int count) {
+        this.sendto(n, MMuser);
+        if (this.id != n & count > 1) {
+            this.countFreq(n, count - 1);
+        }
+    }
+
+    /**
+     * function to count incoming calls from the same node at once
+     * @param n the index of the other node
+     * @param MMuser whether the other node is MM user
+     * @param count number of calls
+     */
+    public void recfrom(Integer n, boolean MMuser, int count) {
+        this.recfrom(n, MMuser);
+        if (this.id != n & count > 1) {
+            this.countFreq(n, count - 1);
+        }
+    }
+
     /**
      * function to count a outgoing call
      * @param n the index of the other node
@@ -190,26 +231,34 @@ public class NodeMotif {
         this.countFreq(n);
     }
 
+    /**
+     * @return whether the lists are organized (or thinned), so that no calls can be added until reset or swipe
+     */
+    public boolean organized() {
+        return this.sList instanceof SortedIntSet;
+    }
+
     /**
      * @param n lower threshold of counting
      */
     public void thinFreq(int n) {
-        HashSet<Integer> remain = new HashSet<Integer>();
+        ArrayList<Integer> remain = new ArrayList<Integer>();
         for (int node : this.nListFreq.keySet()) {
             if (this.nListFreq.get(node) >= n) remain.add(node);
         }
-        this.rList = Sets.intersection(this.rList, remain);
-        this.sList = Sets.intersection(this.sList, remain);
+        SortedIntSet strong = SortedIntSet.of(remain);
+        this.rList = SortedIntSet.intersection(this.rList, strong);
+        this.sList = SortedIntSet.intersection(this.sList, strong);
     }
 
-    // get mutual and neighbor
+    // get mutual and neighbor, the lists are sorted and cannot be changed afterwards (until reset or swipe)
     public void organize() {
-        this.mList = Sets.intersection(this.sList, this.rList);
-        this.sList = Sets.difference(this.sList, this.mList);
-        this.rList = Sets.difference(this.rList, this.mList);
-        this.mListMM = Sets.intersection(this.sListMM, this.rListMM);
-        this.sListMM = Sets.difference(this.sListMM, this.mListMM);
-        this.rListMM = Sets.difference(this.rListMM, this.mListMM);
+        this.mList = SortedIntSet.intersection(this.sList, this.rList);
+        this.sList = SortedIntSet.difference(this.sList, this.mList);
+        this.rList = SortedIntSet.difference(this.rList, this.mList);
+        this.mListMM = SortedIntSet.intersection(this.sListMM, this.rListMM);
+        this.sListMM = SortedIntSet.difference(this.sListMM, this.mListMM);
+        this.rListMM = SortedIntSet.difference(this.rListMM, this.mListMM);
 
     }
 
@@ -428,17 +477,27 @@ public class NodeMotif {
 
     // calculate dyad motifs with new definition
     public void dyadCount2_new(NodeMotifHashMap nodeMap) {
-        this.motif.put(1, countISO_new(nodeMap, 2, 0));
-        this.motif.put(2, countISO_new(nodeMap, 2, 1));
-        this.motif.put(3, countISO_new(nodeMap, 1, 0));
-        this.motif.put(4, countISO_new(nodeMap, 1, 1));
-        this.motif.put(5, countISO_new(nodeMap, 3, 0));
-        this.motif.put(6, countISO_new(nodeMap, 3, 1));
+        this.motif[1] = countISO_new(nodeMap, 2, 0);
+        this.motif[2] = countISO_new(nodeMap, 2, 1);
+        this.motif[3] = countISO_new(nodeMap, 1, 0);
+        this.motif[4] = countISO_new(nodeMap, 1, 1);
+        this.motif[5] = countISO_new(nodeMap, 3, 0);
+        this.motif[6] = countISO_new(nodeMap, 3, 1);
     }
 
     // helper function to implement list intersection with set
     // e.g. (1,1,2,3) intersect (1, 2)  --> (1, 1, 2)
     public int intersect(ArrayList<Integer> list, Set<Integer> set) {
+        if (set instanceof SortedIntSet) {
+            // organized lists: sort the list and merge
+            int[] sorted = new int[list.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = list.get(i);
+            }
+            Arrays.sort(sorted);
+            int[] values = ((SortedIntSet) set).array();
+            return SortedIntSet.countCommon(sorted, 0, sorted.length, values, 0, values.length);
+        }
         int count = 0;
         for (int element : list) {
             if (set.contains(element)) count++;
@@ -479,6 +538,37 @@ public class NodeMotif {
         ArrayList<Integer> rs = get2hop(nodeMap, 2, 1, label0, label1);
         ArrayList<Integer> rr = get2hop(nodeMap, 2, 2, label0, label1);
 
+        // intersections of 2-hop lists with this node's lists, 2-hop nodes out of nList, and numbers of neighbours
+        int[] c = new int[]{
+                this.intersect(mm, this.mList), this.intersect(mm, this.sList), this.intersect(mm, this.rList),
+                this.intersect(sm, this.sList), this.intersect(rm, this.rList), this.intersect(rm, this.sList),
+                this.intersect(mr, this.sList), this.intersect(mr, this.rList), this.intersect(rr, this.sList),
+                this.intersect(ms, this.mList), this.intersect(ms, this.sList), this.intersect(ms, this.rList),
+                this.intersect(ss, this.sList), this.intersect(rs, this.rList), this.intersect(rs, this.sList),
+                this.diff(mm, this.nList), this.diff(sm, this.nList), this.diff(rm, this.nList),
+                this.diff(mr, this.nList), this.diff(sr, this.nList), this.diff(rr, this.nList),
+                this.diff(ms, this.nList), this.diff(ss, this.nList), this.diff(rs, this.nList),
+                this.getNei(3, label0, nodeMap).size(), this.getNei(3, label1, nodeMap).size(),
+                this.getNei(1, label0, nodeMap).size(), this.getNei(1, label1, nodeMap).size(),
+                this.getNei(2, label0, nodeMap).size(), this.getNei(2, label1, nodeMap).size()};
+        putTriCount(label0, label1, c, this.motif);
+    }
+
+    /**
+     * put three-node motifs of one pair of labels from the counts of triCount
+     * @param label0 label of the first neighbour
+     * @param label1 label of the second neighbour
+     * @param c intersections of mm, mm, mm, sm, rm, rm, mr, mr, rr, ms, ms, ms, ss, rs, rs with m, s, r, s, r, s, s, r, s, m, s, r, s, r, s lists,
+     *          then differences of mm, sm, rm, mr, sr, rr, ms, ss, rs with nList,
+     *          then numbers of m, m, s, s, r, r neighbours with label0, label1, label0, label1, label0, label1
+     * @param motif motif counts by index, with those of the pairs of labels before
+     */
+    static void putTriCount(int label0, int label1, int[] c, int[] motif) {
+        int mm_m = c[0], mm_s = c[1], mm_r = c[2], sm_s = c[3], rm_r = c[4], rm_s = c[5];
+        int mr_s = c[6], mr_r = c[7], rr_s = c[8], ms_m = c[9], ms_s = c[10], ms_r = c[11];
+        int ss_s = c[12], rs_r = c[13], rs_s = c[14];
+        int m0 = c[24], m1 = c[25], s0 = c[26], s1 = c[27], r0 = c[28], r1 = c[29];
+
         // divider for homophily graph
         int homo = 1;
         if (label0 == label1) {
@@ -490,28 +580,28 @@ public class NodeMotif {
 		 * Similarly, for set difference, to keep replicate,
 		 *   List<Integer> test = ListUtils.subtract(mm, ListUtils.intersection(this.mlistlist, mm));
 		 */
-        this.motif.put(118 + label0 + label1, this.intersect(mm, this.mList) / homo);
-        this.motif.put(114 + 2 * label0 + label1, this.intersect(mm, this.sList));
-        this.motif.put(110 + 2 * label0 + label1, this.intersect(mm, this.rList));
-        this.motif.put(107 + label0 + label1, this.intersect(sm, this.sList) / homo);
-        this.motif.put(104 + label0 + label1, this.intersect(rm, this.rList) / homo);
-        this.motif.put(100 + 2 * label0 + label1, this.intersect(rm, this.sList));
+        motif[118 + label0 + label1] = mm_m / homo;
+        motif[114 + 2 * label0 + label1] = mm_s;
+        motif[110 + 2 * label0 + label1] = mm_r;
+        motif[107 + label0 + label1] = sm_s / homo;
+        motif[104 + label0 + label1] = rm_r / homo;
+        motif[100 + 2 * label0 + label1] = rm_s;
 
-        this.motif.put(96 + 2 * label0 + label1, this.intersect(mr, this.sList));
+        motif[96 + 2 * label0 + label1] = mr_s;
 
 //		if(label0 == label1){
 //			System.out.println(mm.toString() + ":::" + this.mList.toString()
 //					+":::"+this.intersect(mm, this.mList)  );
 //		}
-        this.motif.put(92 + 2 * label0 + label1, this.intersect(mr, this.rList));
-        this.motif.put(88 + 2 * label0 + label1, this.intersect(rr, this.sList));
+        motif[92 + 2 * label0 + label1] = mr_r;
+        motif[88 + 2 * label0 + label1] = rr_s;
 
-        this.motif.put(84 + 2 * label0 + label1, this.intersect(ms, this.mList));
-        this.motif.put(80 + 2 * label0 + label1, this.intersect(ms, this.sList));
-        this.motif.put(76 + 2 * label0 + label1, this.intersect(ms, this.rList));
-        this.motif.put(72 + 2 * label0 + label1, this.intersect(ss, this.sList));
-        this.motif.put(68 + 2 * label0 + label1, this.intersect(rs, this.rList));
-        this.motif.put(64 + 2 * label0 + label1, this.intersect(rs, this.sList));
+        motif[84 + 2 * label0 + label1] = ms_m;
+        motif[80 + 2 * label0 + label1] = ms_s;
+        motif[76 + 2 * label0 + label1] = ms_r;
+        motif[72 + 2 * label0 + label1] = ss_s;
+        motif[68 + 2 * label0 + label1] = rs_r;
+        motif[64 + 2 * label0 + label1] = rs_s;
 
         // if homo, N1 = N2, the total count is N1 * (N2 -1) / 2
         // if not homo, it is N1 * N2
@@ -524,35 +614,29 @@ public class NodeMotif {
 		 * So we need the factor to help find the correct index.
 		 */
         int fac = label0 + label1;
-        this.motif.put(61 + label0 + label1,
-                this.getNei(3, label0, nodeMap).size()
-                        * (this.getNei(3, label1, nodeMap).size() - homo + 1) / homo
-                        - this.motif.get(84 + fac * label0 + label1) - this.motif.get(118 + label0 + label1));
-
-        this.motif.put(57 + 2 * label0 + label1,
-                this.getNei(3, label0, nodeMap).size()
-                        * this.getNei(1, label1, nodeMap).size()
-                        - this.motif.get(80 + 2 * label0 + label1) - this.motif.get(96 + 2 * label0 + label1) - this.motif.get(114 + 2 * label0 + label1));
-
-        this.motif.put(53 + 2 * label0 + label1,
-                this.getNei(3, label0, nodeMap).size()
-                        * this.getNei(2, label1, nodeMap).size()
-                        - this.motif.get(76 + 2 * label0 + label1) - this.motif.get(92 + 2 * label0 + label1) - this.motif.get(110 + 2 * label0 + label1));
-
-        this.motif.put(50 + label0 + label1,
-                this.getNei(1, label0, nodeMap).size()
-                        * (this.getNei(1, label1, nodeMap).size() - homo + 1) / homo
-                        - this.motif.get(72 + fac * label0 + label1) - this.motif.get(107 + label0 + label1));
-
-        this.motif.put(47 + label0 + label1,
-                this.getNei(2, label0, nodeMap).size()
-                        * (this.getNei(2, label1, nodeMap).size() - homo + 1) / homo
-                        - this.motif.get(68 + fac * label0 + label1) - this.motif.get(104 + label0 + label1));
-
-        this.motif.put(43 + 2 * label0 + label1,
-                this.getNei(2, label0, nodeMap).size()
-                        * this.getNei(1, label1, nodeMap).size()
-                        - this.motif.get(64 + 2 * label0 + label1) - this.motif.get(88 + 2 * label0 + label1) - this.motif.get(100 + 2 * label0 + label1));
+        motif[61 + label0 + label1] =
+                m0 * (m1 - homo + 1) / homo
+                        - motif[84 + fac * label0 + label1] - motif[118 + label0 + label1];
+
+        motif[57 + 2 * label0 + label1] =
+                m0 * s1
+                        - motif[80 + 2 * label0 + label1] - motif[96 + 2 * label0 + label1] - motif[114 + 2 * label0 + label1];
+
+        motif[53 + 2 * label0 + label1] =
+                m0 * r1
+                        - motif[76 + 2 * label0 + label1] - motif[92 + 2 * label0 + label1] - motif[110 + 2 * label0 + label1];
+
+        motif[50 + label0 + label1] =
+                s0 * (s1 - homo + 1) / homo
+                        - motif[72 + fac * label0 + label1] - motif[107 + label0 + label1];
+
+        motif[47 + label0 + label1] =
+                r0 * (r1 - homo + 1) / homo
+                        - motif[68 + fac * label0 + label1] - motif[104 + label0 + label1];
+
+        motif[43 + 2 * label0 + label1] =
+                r0 * s1
+                        - motif[64 + 2 * label0 + label1] - motif[88 + 2 * label0 + label1] - motif[100 + 2 * label0 + label1];
 
         // adjust for symmetric case when first label and second label not equal
 		/* i.e. for type 62, counting 0 <-> A <-> 1
@@ -563,21 +647,21 @@ public class NodeMotif {
 		 */
 
         if (label0 > label1) {
-            this.motif.put(62, this.motif.get(62) - this.motif.get(86));
-            this.motif.put(51, this.motif.get(51) - this.motif.get(74));
-            this.motif.put(48, this.motif.get(48) - this.motif.get(70));
+            motif[62] = motif[62] - motif[86];
+            motif[51] = motif[51] - motif[74];
+            motif[48] = motif[48] - motif[70];
         }
 
         // here we could only use nList, since the previous set considers label
-        this.motif.put(39 + 2 * label0 + label1, this.diff(mm, this.nList));
-        this.motif.put(35 + 2 * label0 + label1, this.diff(sm, this.nList));
-        this.motif.put(31 + 2 * label0 + label1, this.diff(rm, this.nList));
-        this.motif.put(27 + 2 * label0 + label1, this.diff(mr, this.nList));
-        this.motif.put(23 + 2 * label0 + label1, this.diff(sr, this.nList));
-        this.motif.put(19 + 2 * label0 + label1, this.diff(rr, this.nList));
-        this.motif.put(15 + 2 * label0 + label1, this.diff(ms, this.nList));
-        this.motif.put(11 + 2 * label0 + label1, this.diff(ss, this.nList));
-        this.motif.put(7 + 2 * label0 + label1, this.diff(rs, this.nList));
+        motif[39 + 2 * label0 + label1] = c[15];
+        motif[35 + 2 * label0 + label1] = c[16];
+        motif[31 + 2 * label0 + label1] = c[17];
+        motif[27 + 2 * label0 + label1] = c[18];
+        motif[23 + 2 * label0 + label1] = c[19];
+        motif[19 + 2 * label0 + label1] = c[20];
+        motif[15 + 2 * label0 + label1] = c[21];
+        motif[11 + 2 * label0 + label1] = c[22];
+        motif[7 + 2 * label0 + label1] = c[23];
     }
 
     /**
@@ -586,15 +670,11 @@ public class NodeMotif {
      */
     public void motifCount_wlabel(NodeMotifHashMap nodeMap) {
         // if iso by itself, return with type 0
-        for (int i = 1; i < 121; i++) {
-            this.motif.put(i, 0);
-        }
+        this.motif = new int[121];
 
         if (this.nList.size() == 0) {
-            this.motif.put(0, 1);
+            this.motif[0] = 1;
             return;
-        } else {
-            this.motif.put(0, 0);
         }
         // count dyad
         this.dyadCount2_new(nodeMap);
@@ -608,6 +688,38 @@ public class NodeMotif {
         this.triCount(nodeMap, 1, 1);
     }
 
+    /**
+     * calculate motifs with label from the frozen graph, same counts as motifCount_wlabel(nodeMap),
+     *  from one walk over the wedges of this node instead of 2-hop lists for each pair of labels
+     * @param wedges wedge counter of the graph, built after all nodes are organized
+     */
+    public void motifCount_wlabel(WedgeCounter wedges) {
+        GraphCSR graph = wedges.graph();
+        int row = graph.row(this.id);
+        int[] counts = new int[121];
+        // if iso by itself, return with type 0
+        if (graph.degree(row, GraphCSR.ALL) == 0) {
+            counts[0] = 1;
+        } else {
+            wedges.count(row);
+            // count dyad
+            counts[1] = wedges.isolated(2, 0);
+            counts[2] = wedges.isolated(2, 1);
+            counts[3] = wedges.isolated(1, 0);
+            counts[4] = wedges.isolated(1, 1);
+            counts[5] = wedges.isolated(3, 0);
+            counts[6] = wedges.isolated(3, 1);
+            /*
+             * NOTE: the order to put (0,1) and (1,0) should not be changed!
+             */
+            putTriCount(0, 0, wedges.triCount(0, 0), counts);
+            putTriCount(0, 1, wedges.triCount(0, 1), counts);
+            putTriCount(1, 0, wedges.triCount(1, 0), counts);
+            putTriCount(1, 1, wedges.triCount(1, 1), counts);
+        }
+        this.motif = counts;
+    }
+
     public void printTo(BufferedWriter sc, int nvar) throws IOException {
         StringBuilder sb = new StringBuilder();
         sb.append(this.y)
@@ -616,10 +728,10 @@ public class NodeMotif {
         .append(",");
 
         for (int i = 0; i < nvar - 1; i++) {
-            sb.append(this.motif.get(i))
+            sb.append(this.motif[i])
             .append(",");
         }
-        sb.append(this.motif.get(nvar - 1));
+        sb.append(this.motif[nvar - 1]);
 
         // add columns to check outlier is indeed removed
         sb.append(",");
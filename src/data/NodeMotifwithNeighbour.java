@@ -2,7 +2,6 @@ package data;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -13,9 +12,13 @@ import java.util.Set;
  * - updating class: printTo
  */
 public class NodeMotifwithNeighbour extends NodeMotif{
-    public HashMap<Integer, Double> motif_from_in = new HashMap<Integer, Double>();
-    public HashMap<Integer, Double> motif_from_out = new HashMap<Integer, Double>();
-    public HashMap<Integer, Double> motif_from_mut = new HashMap<Integer, Double>();
+    // sums of motif counts of the neighbours by incoming, outgoing and mutual links, by index, null until counted
+    public double[] motif_from_in;
+    public double[] motif_from_out;
+    public double[] motif_from_mut;
+    // sums of motif counts of all the neighbours with label 0 and with label 1 (MM users), by index, null until counted
+    public double[] motif_from_no;
+    public double[] motif_from_yes;
 
     /** Objects for historical map **/
     public Set<Integer> hList = new HashSet<Integer>();
@@ -135,58 +138,65 @@ public class NodeMotifwithNeighbour extends NodeMotif{
     //  new method to grab motif counts from neibour nodes
     public void motifCount_neighbour(NodeMotifHashMap nodeMap) {
         // neighbour by incoming links
-        if(this.rList.size() == 0){
-            for(int i = 0; i < 121; i++){
-                this.motif_from_in.put(i, 0.0);
-            }
-        }else{
-            for(int sender : this.rList){
-                HashMap<Integer, Integer> neiMotif = nodeMap.nodes.get(sender).motif;
-                for(int i = 0; i < 121; i++){
-                    if(this.motif_from_in.get(i) == null){
-                        this.motif_from_in.put(i,  tildeLand(0, neiMotif.get(i)));
-                    }else{
-                        this.motif_from_in.put(i,  tildeLand(this.motif_from_in.get(i), neiMotif.get(i)));
-                    }
-                }
-            }
+        this.motif_from_in = this.neighbourSum(this.rList, nodeMap);
+        // neighbour by outgoing links
+        this.motif_from_out = this.neighbourSum(this.sList, nodeMap);
+        // neighbour by mutual links
+        this.motif_from_mut = this.neighbourSum(this.mList, nodeMap);
+        // neighbours by label, over all links
+        this.motif_from_no = new double[121];
+        this.motif_from_yes = new double[121];
+        this.labelSum(this.rList, nodeMap);
+        this.labelSum(this.sList, nodeMap);
+        this.labelSum(this.mList, nodeMap);
+    }
+
+    // helper function to sum motif counts over a set of neighbours, zero if there is none
+    private double[] neighbourSum(Set<Integer> neighbours, NodeMotifHashMap nodeMap) {
+        double[] sum = new double[121];
+        for (int nei : neighbours) {
+            add(sum, nodeMap.nodes.get(nei).motif);
         }
+        return sum;
+    }
 
-        // neighbour by outgoing links
-        if(this.sList.size() == 0){
-            for(int i = 0; i < 121; i++){
-                this.motif_from_out.put(i, 0.0);
-            }
-        }else{
-            for(int receiver : this.sList){
-                HashMap<Integer, Integer> neiMotif = nodeMap.nodes.get(receiver).motif;
-                for(int i = 0; i < 121; i++){
-                    if(this.motif_from_out.get(i) == null){
-                        this.motif_from_out.put(i,  tildeLand(0, neiMotif.get(i)));
-                    }else{
-                        this.motif_from_out.put(i,  tildeLand(this.motif_from_out.get(i), neiMotif.get(i)));
-                    }
-                }
-            }
+    // helper function to add the motif counts of a set of neighbours to the sums of their labels
+    private void labelSum(Set<Integer> neighbours, NodeMotifHashMap nodeMap) {
+        for (int nei : neighbours) {
+            NodeMotif neiNode = nodeMap.nodes.get(nei);
+            add(neiNode.label == 1 ? this.motif_from_yes : this.motif_from_no, neiNode.motif);
         }
+    }
 
-        // neighbour by mutual links
-        if(this.mList.size() == 0){
-            for(int i = 0; i < 121; i++){
-                this.motif_from_mut.put(i, 0.0);
-            }
-        }else {
-            for (int friend : this.mList) {
-                HashMap<Integer, Integer> neiMotif = nodeMap.nodes.get(friend).motif;
-                for (int i = 0; i < 121; i++) {
-                    if(this.motif_from_mut.get(i) == null){
-                        this.motif_from_mut.put(i, tildeLand(0, neiMotif.get(i)));
-                    }else{
-                        this.motif_from_mut.put(i, tildeLand(this.motif_from_mut.get(i), neiMotif.get(i)));
-                    }
-                }
-            }
+    // helper function to add the motif counts of one neighbour to a sum
+    private void add(double[] sum, int[] neiMotif) {
+        for (int i = 0; i < 121; i++) {
+            sum[i] = tildeLand(sum[i], neiMotif[i]);
+        }
+    }
+
+    /**
+     * same as motifCount_neighbour(nodeMap), with neighbours read from the frozen graph
+     *  (sums are taken over neighbours in the order of the graph rows)
+     * @param graph CSR graph built after all nodes are organized
+     * @param nodeMap HashMap of all the NodeMotifs, holding the motif counts of neighbours
+     */
+    public void motifCount_neighbour(GraphCSR graph, NodeMotifHashMap nodeMap) {
+        int row = graph.row(this.id);
+        this.motif_from_in = this.neighbourSum(graph, graph.neighbours(row, GraphCSR.RECEIVE), nodeMap);
+        this.motif_from_out = this.neighbourSum(graph, graph.neighbours(row, GraphCSR.SEND), nodeMap);
+        this.motif_from_mut = this.neighbourSum(graph, graph.neighbours(row, GraphCSR.MUTUAL), nodeMap);
+        this.motif_from_no = this.neighbourSum(graph, graph.neighbours(row, GraphCSR.ALL, 0), nodeMap);
+        this.motif_from_yes = this.neighbourSum(graph, graph.neighbours(row, GraphCSR.ALL, 1), nodeMap);
+    }
+
+    // helper function to sum motif counts over the given rows
+    private double[] neighbourSum(GraphCSR graph, int[] rows, NodeMotifHashMap nodeMap) {
+        double[] sum = new double[121];
+        for (int nei : rows) {
+            add(sum, nodeMap.nodes.get(graph.id(nei)).motif);
         }
+        return sum;
     }
 
     /* which = 1, motif
@@ -204,22 +214,22 @@ public class NodeMotifwithNeighbour extends NodeMotif{
 
         if(which == 1){
             for (int i = 0; i < nvar; i++) {
-                sb.append(this.motif.get(i));
+                sb.append(this.motif[i]);
                 sb.append(",");
             }
         }else if(which == 2){
             for (int i = 0; i < nvar; i++) {
-                sb.append(this.motif_from_in.get(i))
+                sb.append(this.motif_from_in[i])
                 .append(",");
             }
         }else if(which == 3){
             for (int i = 0; i < nvar; i++) {
-                sb.append(this.motif_from_out.get(i))
+                sb.append(this.motif_from_out[i])
                 .append(",");
             }
         }else if(which == 4){
             for (int i = 0; i < nvar; i++) {
-                sb.append(this.motif_from_mut.get(i))
+                sb.append(this.motif_from_mut[i])
                 .append(",");
             }
         }
@@ -0,0 +1,129 @@
+package data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Attributes of all nodes in columns, indexed by the integer ID of the node (as assigned in the dictionary)
+ *
+ * A frozen copy of the scalar fields of the NodeMotifs, taken once the period is read,
+ *  so that counting can read labels and frequencies from arrays instead of looking up one object per node.
+ *
+ * Usage:
+ *      NodeTable table = new NodeTable(nodeMap);
+ *      if (table.contains(id) && table.label[id] == 1) ...
+ */
+public class NodeTable {
+    // number of rows, i.e. largest ID + 1
+    public final int n;
+    // label of each node, -1 if the ID is not a node
+    public final byte[] label;
+    // outcome of each node: -1, 0 or 1
+    public final byte[] y;
+    // time signed up, kept as double since it is printed with the motifs
+    public final double[] t;
+    // incoming and outgoing calls frequency, and the same for MM neighbours
+    public final int[] inFreq;
+    public final int[] outFreq;
+    public final int[] inFreqMM;
+    public final int[] outFreqMM;
+
+    /**
+     * Copy the attributes of all nodes
+     *
+     * @param nodeMap HashMap of all the NodeMotifs
+     */
+    public NodeTable(NodeMotifHashMap nodeMap) {
+        int max = -1;
+        for (int id : nodeMap.nodes.keySet()) {
+            max = Math.max(max, id);
+        }
+        this.n = max + 1;
+        this.label = new byte[this.n];
+        this.y = new byte[this.n];
+        this.t = new double[this.n];
+        this.inFreq = new int[this.n];
+        this.outFreq = new int[this.n];
+        this.inFreqMM = new int[this.n];
+        this.outFreqMM = new int[this.n];
+        Arrays.fill(this.label, (byte) -1);
+
+        for (int id : nodeMap.nodes.keySet()) {
+            NodeMotif node = nodeMap.nodes.get(id);
+            this.label[id] = (byte) node.label;
+            this.y[id] = (byte) node.y;
+            this.t[id] = node.t;
+            this.inFreq[id] = node.inFreq;
+            this.outFreq[id] = node.outFreq;
+            this.inFreqMM[id] = node.inFreqMM;
+            this.outFreqMM[id] = node.outFreqMM;
+        }
+    }
+
+    /**
+     * Read a table written by write()
+     *
+     * @param in input stream
+     * @throws IOException
+     */
+    public NodeTable(DataInputStream in) throws IOException {
+        this.n = in.readInt();
+        this.label = new byte[this.n];
+        this.y = new byte[this.n];
+        this.t = new double[this.n];
+        this.inFreq = new int[this.n];
+        this.outFreq = new int[this.n];
+        this.inFreqMM = new int[this.n];
+        this.outFreqMM = new int[this.n];
+        in.readFully(this.label);
+        in.readFully(this.y);
+        for (int id = 0; id < this.n; id++) {
+            this.t[id] = in.readDouble();
+            this.inFreq[id] = in.readInt();
+            this.outFreq[id] = in.readInt();
+            this.inFreqMM[id] = in.readInt();
+            this.outFreqMM[id] = in.readInt();
+        }
+    }
+
+    /**
+     * Write the table to a stream, bytes() long
+     *
+     * @param out output stream
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(this.n);
+        out.write(this.label);
+        out.write(this.y);
+        for (int id = 0; id < this.n; id++) {
+            out.writeDouble(this.t[id]);
+            out.writeInt(this.inFreq[id]);
+            out.writeInt(this.outFreq[id]);
+            out.writeInt(this.inFreqMM[id]);
+            out.writeInt(this.outFreqMM[id]);
+        }
+    }
+
+    // number of bytes taken by write()
+    public long bytes() {
+        return 4 + 26L * this.n;
+    }
+
+    // number of rows, i.e. largest ID + 1
+    public int size() {
+        return this.n;
+    }
+
+    // whether the ID is a node
+    public boolean contains(int id) {
+        return id >= 0 && id < this.n && this.label[id] >= 0;
+    }
+
+    // label of a node, -1 if the ID is not a node
+    public int label(int id) {
+        return id >= 0 && id < this.n ? this.label[id] : -1;
+    }
+}
@@ -0,0 +1,168 @@
+package data;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Motif counting of all nodes of a frozen graph on a pool of threads
+ *
+ * The rows are split into tasks of about the same work, being the wedges through the neighbours of each row for the
+ *  motifs of the node, and the neighbours for the sums of neighbour motifs. Halves are split until they are small,
+ *  so that a hub ends in a task of its own, and idle threads steal the tasks left by busy ones.
+ * Each thread keeps its own WedgeCounter. A node only writes its own counts, and the neighbour motifs are counted
+ *  once all motifs are, so the counts are the same as counting one node at a time.
+ * On symmetric graphs all triangles are found once on the same pool first (useTriangles, see TriangleCounter), and
+ *  each node reads its counts instead of walking the rows of its neighbours.
+ *
+ * Usage:
+ *      ParallelMotifCounter counter = new ParallelMotifCounter(graph, nodeMap, nThreads);
+ *      counter.countMotifs();
+ *      counter.countNeighbourMotifs();
+ *      counter.shutdown();
+ */
+public class ParallelMotifCounter {
+    // number of tasks for each thread a pass is split into, if no row takes more
+    public static int tasksPerThread = 16;
+    // whether to count the motifs from the triangles of the graph if it is symmetric, instead of the wedges of each node
+    public static boolean useTriangles = true;
+
+    private final GraphCSR graph;
+    private final NodeMotifHashMap nodeMap;
+    private final ForkJoinPool pool;
+    // node of each row, null for rows that are not nodes of the HashMap
+    private final NodeMotifwithNeighbour[] nodes;
+    // wedge counter of each thread, made for each count of motifs
+    private ThreadLocal<WedgeCounter> wedges;
+
+    /**
+     * @param graph    CSR graph built after all nodes are organized
+     * @param nodeMap  HashMap of all the NodeMotifs, to keep the counts
+     * @param nThreads number of threads
+     */
+    public ParallelMotifCounter(GraphCSR graph, NodeMotifHashMap nodeMap, int nThreads) {
+        this.graph = graph;
+        this.nodeMap = nodeMap;
+        this.pool = new ForkJoinPool(Math.max(1, nThreads));
+        this.nodes = new NodeMotifwithNeighbour[graph.size()];
+        for (int row = 0; row < graph.size(); row++) {
+            this.nodes[row] = nodeMap.nodes.get(graph.id(row));
+        }
+    }
+
+    /**
+     * Count the motifs of each node, as motifCount_wlabel
+     */
+    public void countMotifs() {
+        final TriangleCounter triangles = useTriangles ? new TriangleCounter(this.graph) : null;
+        final boolean symmetric = triangles != null && triangles.isSymmetric();
+        final boolean counted = symmetric && triangles.count(this.pool);
+        this.wedges = new ThreadLocal<WedgeCounter>() {
+            protected WedgeCounter initialValue() {
+                return symmetric ? new WedgeCounter(graph, triangles) : new WedgeCounter(graph);
+            }
+        };
+        // work of each row: the rows of its neighbours walked, or only their higher-ranked neighbours to find triangles,
+        //  or none once they are counted
+        long[] work = new long[this.nodes.length + 1];
+        int[] all = new int[16];
+        for (int row = 0; row < this.nodes.length; row++) {
+            long wedges = 0;
+            if (this.nodes[row] != null) {
+                int degree = this.graph.degree(row, GraphCSR.ALL);
+                if (all.length < degree) {
+                    all = new int[Math.max(degree, all.length * 2)];
+                }
+                int count = this.graph.neighbours(row, GraphCSR.ALL, 0, all, 0);
+                this.graph.neighbours(row, GraphCSR.ALL, 1, all, count);
+                for (int k = 0; k < degree && !counted; k++) {
+                    wedges += symmetric ? triangles.higher(all[k]) : this.graph.degree(all[k], GraphCSR.ALL);
+                }
+                wedges += degree + 1;
+            }
+            work[row + 1] = work[row] + wedges;
+        }
+        this.pool.invoke(new Pass(false, work, this.grain(work), 0, this.nodes.length));
+    }
+
+    /**
+     * Count the sums of the motifs of the neighbours of each node from the graph, after countMotifs
+     */
+    public void countNeighbourMotifs() {
+        long[] work = this.neighbourWork();
+        this.pool.invoke(new Pass(true, work, this.grain(work), 0, this.nodes.length));
+    }
+
+    // stop the threads, the counter cannot be used afterwards
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    // helper function to get the work of the rows before each row, with the neighbours of each node as its work
+    private long[] neighbourWork() {
+        long[] work = new long[this.nodes.length + 1];
+        for (int row = 0; row < this.nodes.length; row++) {
+            long neighbours = this.nodes[row] == null ? 0 : this.graph.degree(row, GraphCSR.ALL) + 1;
+            work[row + 1] = work[row] + neighbours;
+        }
+        return work;
+    }
+
+    // helper function to get the work of a task small enough not to be split
+    private long grain(long[] work) {
+        long tasks = (long) this.pool.getParallelism() * tasksPerThread;
+        return Math.max(1, work[work.length - 1] / tasks);
+    }
+
+    /**
+     * Counting of a range of rows, split in two halves of about the same work while it is larger than the grain
+     */
+    private class Pass extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final boolean neighbour;
+        // work of the rows before each row
+        private final long[] work;
+        private final long grain;
+        private final int from;
+        private final int to;
+
+        Pass(boolean neighbour, long[] work, long grain, int from, int to) {
+            this.neighbour = neighbour;
+            this.work = work;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (this.to - this.from > 1 && this.work[this.to] - this.work[this.from] > this.grain) {
+                // first row with half of the work of the range before it, but not the first row
+                long half = this.work[this.from] + (this.work[this.to] - this.work[this.from]) / 2;
+                int lo = this.from + 1;
+                int hi = this.to - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (this.work[mid] < half) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                invokeAll(new Pass(this.neighbour, this.work, this.grain, this.from, lo),
+                        new Pass(this.neighbour, this.work, this.grain, lo, this.to));
+                return;
+            }
+            WedgeCounter wedges = this.neighbour ? null : ParallelMotifCounter.this.wedges.get();
+            for (int row = this.from; row < this.to; row++) {
+                NodeMotifwithNeighbour node = nodes[row];
+                if (node == null) {
+                    continue;
+                }
+                if (this.neighbour) {
+                    node.motifCount_neighbour(graph, nodeMap);
+                } else {
+                    node.motifCount_wlabel(wedges);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Array of bytes, ints or longs of any length, kept in buffers of 2^SEGMENT bytes each and addressed by a long index
+ *
+ * A single NIO buffer holds at most Integer.MAX_VALUE bytes, so that arrays of a large graph are split in segments.
+ *  An int or a long never spans two segments, as the segments are a multiple of 8 bytes long. The buffers are made
+ *  by the caller (in the heap, off the heap or mapped from a file), and are all in the same byte order.
+ *
+ * Usage:
+ *      Segments ints = new Segments(buffers, 4L * count);
+ *      ints.putInt(k, value);
+ *      int value = ints.getInt(k);
+ */
+final class Segments {
+    // bytes of a segment, 2^SEGMENT
+    static final int SEGMENT = 30;
+    static final long MASK = (1L << SEGMENT) - 1;
+
+    private final ByteBuffer[] bytes;
+    // views of the segments as ints and longs
+    private final IntBuffer[] ints;
+    private final LongBuffer[] longs;
+    // number of bytes
+    private final long size;
+
+    /**
+     * @param bytes segments, each of 2^SEGMENT bytes but the last one
+     * @param size  number of bytes over all segments
+     */
+    Segments(ByteBuffer[] bytes, long size) {
+        this.bytes = bytes;
+        this.size = size;
+        this.ints = new IntBuffer[bytes.length];
+        this.longs = new LongBuffer[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            this.ints[i] = bytes[i].asIntBuffer();
+            this.longs[i] = bytes[i].asLongBuffer();
+        }
+    }
+
+    /**
+     * Map a section of a file read-only, in segments
+     *
+     * @param channel  the file
+     * @param position first byte of the section
+     * @param size     number of bytes of the section
+     * @return the section, in the order of the file (big-endian)
+     * @throws IOException if the file cannot be mapped
+     */
+    static Segments map(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer[] bytes = new ByteBuffer[count(size)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + ((long) i << SEGMENT), length(size, i));
+        }
+        return new Segments(bytes, size);
+    }
+
+    // number of segments of an array of [size] bytes
+    static int count(long size) {
+        long count = (size + MASK) >>> SEGMENT;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Array of " + size + " bytes too large for segments of 2^" + SEGMENT);
+        }
+        return (int) count;
+    }
+
+    // number of bytes of segment i of an array of [size] bytes
+    static int length(long size, int i) {
+        return (int) Math.min(size - ((long) i << SEGMENT), 1L << SEGMENT);
+    }
+
+    // number of bytes
+    long size() {
+        return this.size;
+    }
+
+    // whether the segments are held outside the heap
+    boolean isDirect() {
+        return this.bytes.length == 0 || this.bytes[0].isDirect();
+    }
+
+    byte get(long at) {
+        return this.bytes[(int) (at >>> SEGMENT)].get((int) (at & MASK));
+    }
+
+    void put(long at, byte value) {
+        this.bytes[(int) (at >>> SEGMENT)].put((int) (at & MASK), value);
+    }
+
+    // int k, i.e. at byte 4 * k
+    int getInt(long k) {
+        return this.ints[(int) (k >>> (SEGMENT - 2))].get((int) (k & (MASK >>> 2)));
+    }
+
+    void putInt(long k, int value) {
+        this.ints[(int) (k >>> (SEGMENT - 2))].put((int) (k & (MASK >>> 2)), value);
+    }
+
+    // long k, i.e. at byte 8 * k
+    long getLong(long k) {
+        return this.longs[(int) (k >>> (SEGMENT - 3))].get((int) (k & (MASK >>> 3)));
+    }
+
+    void putLong(long k, long value) {
+        this.longs[(int) (k >>> (SEGMENT - 3))].put((int) (k & (MASK >>> 3)), value);
+    }
+
+    /**
+     * @param from first int
+     * @param to   int after the last one
+     * @return the segment holding ints [from, to) as ints, with int [from] at from & (MASK >>> 2),
+     *          or null if they span two segments
+     */
+    IntBuffer ints(long from, long to) {
+        int segment = (int) (from >>> (SEGMENT - 2));
+        if (to > from && (to - 1) >>> (SEGMENT - 2) != segment) {
+            return null;
+        }
+        return segment < this.ints.length ? this.ints[segment] : null;
+    }
+}
@@ -0,0 +1,387 @@
+package data;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Triangles of the frozen graph, each found once and credited to its three nodes, for the labelled node motifs
+ *
+ * Each edge of the send-only, receive-only and mutual relations is kept once, from the node of lower rank
+ *  (fewer neighbours first) to the other one, so that the triangles are the common higher-ranked neighbours of the
+ *  two ends of each edge (compact-forward), and hub rows, of the highest ranks, are never merged with. A triangle
+ *  closes two wedges at each of its nodes, and each closed wedge is counted for its node by the same classes as
+ *  WedgeCounter: the labels of nei1 and nei2, the two relations, and the relation of nei2 to the node. Open wedges
+ *  are then all wedges of a class, from the degrees of the neighbours, less the closed ones, and the motifs follow
+ *  as in putTriCount.
+ *
+ * The closed wedges take 108 counters for each row, kept in chunks of CHUNK rows. If they would take more than
+ *  maxCountBytes, nothing is counted up front and each node finds its own triangles instead, from the higher-ranked
+ *  neighbours of its neighbours, so that each triangle is found at each of its nodes.
+ *
+ * The relations of an edge from each end are found from one another (send-only one way is receive-only the other),
+ *  so the counts only match those of WedgeCounter on symmetric graphs, with all neighbours the union of the three
+ *  relations (isSymmetric); other graphs are left to WedgeCounter.
+ *
+ * Usage:
+ *      TriangleCounter triangles = new TriangleCounter(graph);
+ *      if (triangles.isSymmetric()) {
+ *          triangles.count(pool);
+ *          wedges = new WedgeCounter(graph, triangles);
+ *      }
+ */
+public class TriangleCounter {
+    // most bytes of closed wedge counters to find all triangles once, 0 to always find them at each node
+    public static long maxCountBytes = 1L << 32;
+    // rows of a chunk of counters, and counters of a row: closed wedges by pair of labels, two relations, relation
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int COUNTERS = 4 * 27;
+
+    private final GraphCSR graph;
+    private final int n;
+    // higher-ranked neighbours of each row in ascending row, and the relation to each as the row sees it
+    private int[] offsets;
+    private int[] targets;
+    private byte[] types;
+    private final boolean symmetric;
+    // closed wedges of the rows of each chunk, null until counted
+    private AtomicIntegerArray[] closed;
+
+    /**
+     * Keep each edge from the end of lower rank, and check the graph is symmetric
+     *
+     * @param graph the graph, with rows in any order, compressed or not
+     */
+    public TriangleCounter(GraphCSR graph) {
+        this.graph = graph;
+        this.n = graph.size();
+        this.symmetric = graph.isUnion() && this.orient();
+    }
+
+    // whether each relation of a row has the row in the mirror relation back, and all neighbours are their union
+    public boolean isSymmetric() {
+        return this.symmetric;
+    }
+
+    // whether all triangles are counted, so that the wedges of a node are read instead of searched for
+    public boolean isCounted() {
+        return this.closed != null;
+    }
+
+    public GraphCSR graph() {
+        return this.graph;
+    }
+
+    /**
+     * @param row row of the node
+     * @return number of neighbours of higher rank, i.e. the neighbours read through this row to count each neighbour
+     */
+    public int higher(int row) {
+        return this.offsets[row + 1] - this.offsets[row];
+    }
+
+    /**
+     * Find all triangles and credit their closed wedges to their nodes, if the counters fit in maxCountBytes
+     *
+     * @param pool threads to split the rows among
+     * @return whether the triangles are counted
+     */
+    public boolean count(ForkJoinPool pool) {
+        if (!this.symmetric) {
+            throw new IllegalStateException("Triangles are only counted on symmetric graphs, see isSymmetric()");
+        }
+        if ((long) this.n * COUNTERS * 4 > maxCountBytes) {
+            return false;
+        }
+        AtomicIntegerArray[] closed = new AtomicIntegerArray[(this.n + CHUNK - 1) >>> CHUNK_BITS];
+        for (int c = 0; c < closed.length; c++) {
+            closed[c] = new AtomicIntegerArray(Math.min(CHUNK, this.n - (c << CHUNK_BITS)) * COUNTERS);
+        }
+        // work of each row: the merges of its higher-ranked neighbours with theirs
+        long[] work = new long[this.n + 1];
+        for (int u = 0; u < this.n; u++) {
+            long merges = 1;
+            for (int i = this.offsets[u]; i < this.offsets[u + 1]; i++) {
+                int v = this.targets[i];
+                merges += this.offsets[u + 1] - this.offsets[u] + this.offsets[v + 1] - this.offsets[v];
+            }
+            work[u + 1] = work[u] + merges;
+        }
+        long grain = Math.max(1, work[this.n] / ((long) pool.getParallelism() * ParallelMotifCounter.tasksPerThread));
+        pool.invoke(new Enumeration(closed, work, grain, 0, this.n));
+        this.closed = closed;
+        return true;
+    }
+
+    /**
+     * Wedges of a node, as WedgeCounter counts them, from the triangles counted or else those found at the node
+     *
+     * @param row      row of the node
+     * @param wedges   number of wedges of each class, by WedgeCounter.index
+     * @param isolated number of neighbours with no other neighbour, by relation and label
+     * @param mark     scratch array of a byte for each row, all 0, and left so
+     * @param hop1     scratch array for the neighbours of the node
+     */
+    void wedges(int row, int[] wedges, int[] isolated, byte[] mark, int[] hop1) {
+        if (!this.symmetric) {
+            throw new IllegalStateException("Triangles are only counted on symmetric graphs, see isSymmetric()");
+        }
+        GraphCSR graph = this.graph;
+        Arrays.fill(wedges, 0);
+        Arrays.fill(isolated, 0);
+        int me = graph.isMM(row) ? 1 : 0;
+        boolean search = this.closed == null;
+        // all wedges of each class, from the degrees of nei1, and the relation of each neighbour to the node to search
+        for (int t0 = GraphCSR.SEND; t0 <= GraphCSR.MUTUAL; t0++) {
+            for (int label0 = 0; label0 <= 1; label0++) {
+                int d0 = graph.neighbours(row, t0, label0, hop1, 0);
+                for (int k = 0; k < d0; k++) {
+                    int nei1 = hop1[k];
+                    if (search) {
+                        mark[nei1] = (byte) t0;
+                    }
+                    if (graph.degree(nei1, GraphCSR.ALL) == 1) {
+                        isolated[t0 * 2 + label0]++;
+                    }
+                    for (int t1 = GraphCSR.SEND; t1 <= GraphCSR.MUTUAL; t1++) {
+                        wedges[WedgeCounter.index(label0, 0, t0, t1) + WedgeCounter.NONE] += graph.degree(nei1, t1, 0);
+                        wedges[WedgeCounter.index(label0, 1, t0, t1) + WedgeCounter.NONE] += graph.degree(nei1, t1, 1);
+                    }
+                }
+                // the node itself is a neighbour of each nei1, in the mirror relation
+                wedges[WedgeCounter.index(label0, me, t0, mirror(t0)) + WedgeCounter.NONE] -= d0;
+            }
+        }
+
+        if (!search) {
+            // closed wedges credited by the enumeration, and the open ones left
+            AtomicIntegerArray closed = this.closed[row >>> CHUNK_BITS];
+            int first = (row & (CHUNK - 1)) * COUNTERS;
+            for (int label0 = 0; label0 <= 1; label0++) {
+                for (int label1 = 0; label1 <= 1; label1++) {
+                    for (int t0 = GraphCSR.SEND; t0 <= GraphCSR.MUTUAL; t0++) {
+                        for (int t1 = GraphCSR.SEND; t1 <= GraphCSR.MUTUAL; t1++) {
+                            int base = WedgeCounter.index(label0, label1, t0, t1);
+                            for (int relation = GraphCSR.SEND; relation <= GraphCSR.MUTUAL; relation++) {
+                                int count = closed.get(first + (label0 * 2 + label1) * 27 + slot(t0, t1, relation));
+                                wedges[base + relation] = count;
+                                wedges[base + WedgeCounter.NONE] -= count;
+                            }
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        // triangles through each neighbour and one of its higher-ranked neighbours, each closing two wedges
+        int degree = graph.neighbours(row, GraphCSR.ALL, 0, hop1, 0);
+        degree += graph.neighbours(row, GraphCSR.ALL, 1, hop1, degree);
+        int[] offsets = this.offsets;
+        int[] targets = this.targets;
+        byte[] types = this.types;
+        for (int k = 0; k < degree; k++) {
+            int b = hop1[k];
+            int tab = mark[b];
+            int labelB = graph.isMM(b) ? 1 : 0;
+            for (int i = offsets[b]; i < offsets[b + 1]; i++) {
+                int c = targets[i];
+                int tac = mark[c];
+                if (tac == 0) continue;
+                int tbc = types[i];
+                int labelC = graph.isMM(c) ? 1 : 0;
+                // the wedge through b to c, and the one through c to b
+                int bc = WedgeCounter.index(labelB, labelC, tab, tbc);
+                int cb = WedgeCounter.index(labelC, labelB, tac, mirror(tbc));
+                wedges[bc + tac]++;
+                wedges[bc + WedgeCounter.NONE]--;
+                wedges[cb + tab]++;
+                wedges[cb + WedgeCounter.NONE]--;
+            }
+        }
+        for (int k = 0; k < degree; k++) {
+            mark[hop1[k]] = 0;
+        }
+    }
+
+    /**
+     * Keep the higher-ranked neighbours of each row, and compare them with the lower-ranked rows that have the row
+     *  as a neighbour, with their relations mirrored
+     *
+     * @return whether the graph is symmetric
+     */
+    private boolean orient() {
+        GraphCSR graph = this.graph;
+        // rank of each row by number of neighbours, then by row
+        int maxDegree = 0;
+        for (int row = 0; row < this.n; row++) {
+            maxDegree = Math.max(maxDegree, graph.degree(row, GraphCSR.ALL));
+        }
+        int[] first = new int[maxDegree + 2];
+        for (int row = 0; row < this.n; row++) {
+            first[graph.degree(row, GraphCSR.ALL) + 1]++;
+        }
+        for (int d = 0; d <= maxDegree; d++) {
+            first[d + 1] += first[d];
+        }
+        int[] rank = new int[this.n];
+        for (int row = 0; row < this.n; row++) {
+            rank[row] = first[graph.degree(row, GraphCSR.ALL)]++;
+        }
+
+        // higher-ranked neighbours of each row (up), and rows of lower rank with the row as neighbour (down),
+        //  as the row number shifted left by two and the relation seen from the row
+        this.offsets = new int[this.n + 1];
+        int[] downOffsets = new int[this.n + 1];
+        int[] buffer = new int[Math.max(1, maxDegree)];
+        for (int pass = 0; pass < 2; pass++) {
+            long[] up = pass == 0 ? null : new long[this.offsets[this.n]];
+            long[] down = pass == 0 ? null : new long[downOffsets[this.n]];
+            int[] upAt = pass == 0 ? null : Arrays.copyOf(this.offsets, this.n);
+            int[] downAt = pass == 0 ? null : Arrays.copyOf(downOffsets, this.n);
+            for (int row = 0; row < this.n; row++) {
+                for (int type = GraphCSR.SEND; type <= GraphCSR.MUTUAL; type++) {
+                    int count = graph.neighbours(row, type, 0, buffer, 0);
+                    count += graph.neighbours(row, type, 1, buffer, count);
+                    for (int k = 0; k < count; k++) {
+                        int nei = buffer[k];
+                        if (rank[row] < rank[nei]) {
+                            if (pass == 0) {
+                                this.offsets[row + 1]++;
+                            } else {
+                                up[upAt[row]++] = ((long) nei << 2) | type;
+                            }
+                        } else {
+                            if (pass == 0) {
+                                downOffsets[nei + 1]++;
+                            } else {
+                                down[downAt[nei]++] = ((long) row << 2) | mirror(type);
+                            }
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int row = 0; row < this.n; row++) {
+                    this.offsets[row + 1] += this.offsets[row];
+                    downOffsets[row + 1] += downOffsets[row];
+                }
+                if (this.offsets[this.n] != downOffsets[this.n]) {
+                    return false;
+                }
+                continue;
+            }
+            this.targets = new int[up.length];
+            this.types = new byte[up.length];
+            for (int row = 0; row < this.n; row++) {
+                int from = this.offsets[row];
+                int to = this.offsets[row + 1];
+                if (to - from != downOffsets[row + 1] - downOffsets[row]) {
+                    return false;
+                }
+                Arrays.sort(up, from, to);
+                Arrays.sort(down, from, to);
+                for (int i = from; i < to; i++) {
+                    if (up[i] != down[i]) {
+                        return false;
+                    }
+                    this.targets[i] = (int) (up[i] >>> 2);
+                    this.types[i] = (byte) (up[i] & 3);
+                }
+            }
+        }
+        return true;
+    }
+
+    // helper function to credit the two wedges closed at node a by the edge from b to c
+    //  tab, tac: relations to b and c seen from a, tbc: relation to c seen from b
+    private void credit(AtomicIntegerArray[] closed, int a, int b, int c, int tab, int tac, int tbc) {
+        int labelB = this.graph.isMM(b) ? 1 : 0;
+        int labelC = this.graph.isMM(c) ? 1 : 0;
+        AtomicIntegerArray counts = closed[a >>> CHUNK_BITS];
+        int first = (a & (CHUNK - 1)) * COUNTERS;
+        counts.getAndIncrement(first + (labelB * 2 + labelC) * 27 + slot(tab, tbc, tac));
+        counts.getAndIncrement(first + (labelC * 2 + labelB) * 27 + slot(tac, mirror(tbc), tab));
+    }
+
+    // helper function to find the counter of the closed wedges of a pair of labels with the given relations
+    private static int slot(int t0, int t1, int relation) {
+        return (t0 - 1) * 9 + (t1 - 1) * 3 + relation - 1;
+    }
+
+    // helper function to get the relation seen from the other end: send-only and receive-only swap
+    private static int mirror(int type) {
+        return type == GraphCSR.SEND ? GraphCSR.RECEIVE : type == GraphCSR.RECEIVE ? GraphCSR.SEND : type;
+    }
+
+    /**
+     * Triangles of a range of rows of lowest rank in them, split in halves of about the same work
+     */
+    private class Enumeration extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final AtomicIntegerArray[] closed;
+        // work of the rows before each row
+        private final long[] work;
+        private final long grain;
+        private final int from;
+        private final int to;
+
+        Enumeration(AtomicIntegerArray[] closed, long[] work, long grain, int from, int to) {
+            this.closed = closed;
+            this.work = work;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (this.to - this.from > 1 && this.work[this.to] - this.work[this.from] > this.grain) {
+                // first row with half of the work of the range before it, but not the first row
+                long half = this.work[this.from] + (this.work[this.to] - this.work[this.from]) / 2;
+                int lo = this.from + 1;
+                int hi = this.to - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (this.work[mid] < half) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                invokeAll(new Enumeration(this.closed, this.work, this.grain, this.from, lo),
+                        new Enumeration(this.closed, this.work, this.grain, lo, this.to));
+                return;
+            }
+            int[] offsets = TriangleCounter.this.offsets;
+            int[] targets = TriangleCounter.this.targets;
+            byte[] types = TriangleCounter.this.types;
+            for (int u = this.from; u < this.to; u++) {
+                for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                    int v = targets[i];
+                    int tuv = types[i];
+                    // common higher-ranked neighbours of u and v, by merging their rows
+                    int j = offsets[u];
+                    int k = offsets[v];
+                    while (j < offsets[u + 1] && k < offsets[v + 1]) {
+                        if (targets[j] < targets[k]) {
+                            j++;
+                        } else if (targets[j] > targets[k]) {
+                            k++;
+                        } else {
+                            int w = targets[j];
+                            int tuw = types[j];
+                            int tvw = types[k];
+                            credit(this.closed, u, v, w, tuv, tuw, tvw);
+                            credit(this.closed, v, u, w, mirror(tuv), tvw, tuw);
+                            credit(this.closed, w, u, v, mirror(tuw), mirror(tvw), tuv);
+                            j++;
+                            k++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package data;
+
+import java.util.Arrays;
+
+/**
+ * Wedges of a node in the frozen graph, walked once for all pairs of labels, to count the labelled node motifs
+ *
+ * A wedge is a path from the node through a send-only, receive-only or mutual neighbour (nei1) to one of its
+ *  send-only, receive-only or mutual neighbours (nei2), other than the node. Each wedge is counted by the two
+ *  relations, the labels of nei1 and nei2, and the relation of nei2 to the node, read from an array marked with
+ *  the rows of the node. These are the sizes of the intersections and differences triCount(nodeMap, label0, label1)
+ *  takes from nine 2-hop lists for each pair of labels, without building the lists.
+ *
+ * A row of nei1 of at least hubDegree neighbours, far longer than the neighbours of the node, e.g. of a hub, is not
+ *  walked: the rows of the node are searched in it instead (countCommon), and the wedges to nodes that are not
+ *  neighbours of the node are its degree less the others. This bounds the wedges through a hub, walked from each of
+ *  its neighbours, by the degrees of the neighbours. Rows of hubs of a compressed graph are kept decoded
+ *  (GraphCSR.keepDecoded) to be searched in, instead of being decoded again for each neighbour.
+ * The mains count organized, i.e. symmetric, graphs from their triangles (TriangleCounter), so rows are only walked
+ *  with ParallelMotifCounter.useTriangles off, on graphs that are not symmetric, or counting one node at a time.
+ *
+ * A counter keeps scratch arrays as large as the graph, so it is made once and used for all nodes of a thread.
+ * Given the triangles of the graph (TriangleCounter), it takes the counts from them instead of walking the wedges.
+ *
+ * Usage:
+ *      WedgeCounter wedges = new WedgeCounter(graph);
+ *      wedges.count(graph.row(id));
+ *      int[] c = wedges.triCount(0, 1);
+ */
+public class WedgeCounter {
+    // relation of nei2 not in the all-neighbour row of the node, next to the relation indicators s-1, r-2, m-3
+    static final int NONE = 0;
+    // least number of neighbours of nei1 of a relation and label to search the rows of the node in, 0 to always walk
+    public static int hubDegree = 1000;
+
+    private final GraphCSR graph;
+    // triangles of the graph, null to walk the wedges
+    private final TriangleCounter triangles;
+    // relations of each row to the node, as bits (1 << type), or as the type to find triangles, cleared after each node
+    private final byte[] mark;
+    // number of wedges by the labels of nei1 and nei2, the two relations, and the relation of nei2 to the node
+    private final int[] wedges = new int[4 * 9 * 4];
+    // number of neighbours with no other neighbour, by relation and label
+    private final int[] isolated = new int[4 * 2];
+    // row of the node counted last
+    private int row = -1;
+    private int[] hop1 = new int[16];
+    private int[] hop2 = new int[16];
+
+    /**
+     * @param graph the graph, with rows in any order, compressed or not
+     */
+    public WedgeCounter(GraphCSR graph) {
+        this(graph, null);
+    }
+
+    /**
+     * @param graph     the graph, with rows in any order, compressed or not
+     * @param triangles triangles of the same graph, if symmetric, or null to walk the wedges of each node
+     */
+    public WedgeCounter(GraphCSR graph, TriangleCounter triangles) {
+        this.graph = graph;
+        this.triangles = triangles;
+        this.mark = new byte[graph.size()];
+        if (triangles == null && hubDegree > 0) {
+            graph.keepDecoded(hubDegree);
+        }
+    }
+
+    public GraphCSR graph() {
+        return this.graph;
+    }
+
+    /**
+     * Count the wedges of a node
+     *
+     * @param row row of the node
+     */
+    public void count(int row) {
+        GraphCSR graph = this.graph;
+        this.row = row;
+        if (this.triangles != null) {
+            this.hop1 = room(this.hop1, graph.degree(row, GraphCSR.ALL));
+            this.triangles.wedges(row, this.wedges, this.isolated, this.mark, this.hop1);
+            return;
+        }
+        Arrays.fill(this.wedges, 0);
+        Arrays.fill(this.isolated, 0);
+        this.markRow(row, true);
+
+        byte[] mark = this.mark;
+        int[] wedges = this.wedges;
+        int me = graph.label(row);
+        boolean hubs = hubDegree > 0;
+        // rows of the node by relation and label, taken for the first hub
+        int[][] rows = null;
+        for (int t0 = GraphCSR.SEND; t0 <= GraphCSR.MUTUAL; t0++) {
+            for (int label0 = 0; label0 <= 1; label0++) {
+                int d0 = graph.degree(row, t0, label0);
+                this.hop1 = room(this.hop1, d0);
+                int[] hop1 = this.hop1;
+                graph.neighbours(row, t0, label0, hop1, 0);
+                for (int i = 0; i < d0; i++) {
+                    int nei1 = hop1[i];
+                    if (graph.degree(nei1, GraphCSR.ALL) == 1) {
+                        this.isolated[t0 * 2 + label0]++;
+                    }
+                    for (int t1 = GraphCSR.SEND; t1 <= GraphCSR.MUTUAL; t1++) {
+                        for (int label1 = 0; label1 <= 1; label1++) {
+                            int d1 = graph.degree(nei1, t1, label1);
+                            if (d1 == 0) continue;
+                            int base = index(label0, label1, t0, t1);
+                            if (hubs && d1 >= hubDegree && (long) graph.degree(row, GraphCSR.ALL, label1) * 8 < d1) {
+                                if (rows == null) {
+                                    rows = this.rows(row);
+                                }
+                                for (int t = GraphCSR.SEND; t <= GraphCSR.MUTUAL; t++) {
+                                    wedges[base + t] += graph.countCommon(nei1, t1, label1, rows[t * 2 + label1]);
+                                }
+                                // paths back to the node itself are not wedges
+                                int self = label1 == me && graph.contains(nei1, t1, row) ? 1 : 0;
+                                wedges[base + NONE] += d1 - self
+                                        - graph.countCommon(nei1, t1, label1, rows[GraphCSR.ALL * 2 + label1]);
+                                continue;
+                            }
+                            this.hop2 = room(this.hop2, d1);
+                            int[] hop2 = this.hop2;
+                            graph.neighbours(nei1, t1, label1, hop2, 0);
+                            int self = 0;
+                            int closed = 0;
+                            for (int k = 0; k < d1; k++) {
+                                int nei2 = hop2[k];
+                                if (nei2 == row) {
+                                    self++;
+                                    continue;
+                                }
+                                int m = mark[nei2];
+                                // relations of a node are marked one by one, as the lists are intersected one by one
+                                if ((m & (1 << GraphCSR.SEND)) != 0) wedges[base + GraphCSR.SEND]++;
+                                if ((m & (1 << GraphCSR.RECEIVE)) != 0) wedges[base + GraphCSR.RECEIVE]++;
+                                if ((m & (1 << GraphCSR.MUTUAL)) != 0) wedges[base + GraphCSR.MUTUAL]++;
+                                if ((m & (1 << GraphCSR.ALL)) != 0) closed++;
+                            }
+                            wedges[base + NONE] += d1 - self - closed;
+                        }
+                    }
+                }
+            }
+        }
+        this.markRow(row, false);
+    }
+
+    /**
+     * Counts of one pair of labels, as triCount gives them to putTriCount
+     *
+     * @param label0 label of nei1
+     * @param label1 label of nei2
+     * @return intersections of mm, mm, mm, sm, rm, rm, mr, mr, rr, ms, ms, ms, ss, rs, rs with m, s, r, s, r, s, s, r, s, m, s, r, s, r, s lists,
+     *          then differences of mm, sm, rm, mr, sr, rr, ms, ss, rs with nList,
+     *          then numbers of m, m, s, s, r, r neighbours with label0, label1, label0, label1, label0, label1
+     */
+    public int[] triCount(int label0, int label1) {
+        int s = GraphCSR.SEND, r = GraphCSR.RECEIVE, m = GraphCSR.MUTUAL;
+        return new int[]{
+                w(label0, label1, m, m, m), w(label0, label1, m, m, s), w(label0, label1, m, m, r),
+                w(label0, label1, s, m, s), w(label0, label1, r, m, r), w(label0, label1, r, m, s),
+                w(label0, label1, m, r, s), w(label0, label1, m, r, r), w(label0, label1, r, r, s),
+                w(label0, label1, m, s, m), w(label0, label1, m, s, s), w(label0, label1, m, s, r),
+                w(label0, label1, s, s, s), w(label0, label1, r, s, r), w(label0, label1, r, s, s),
+                w(label0, label1, m, m, NONE), w(label0, label1, s, m, NONE), w(label0, label1, r, m, NONE),
+                w(label0, label1, m, r, NONE), w(label0, label1, s, r, NONE), w(label0, label1, r, r, NONE),
+                w(label0, label1, m, s, NONE), w(label0, label1, s, s, NONE), w(label0, label1, r, s, NONE),
+                this.graph.degree(this.row, m, label0), this.graph.degree(this.row, m, label1),
+                this.graph.degree(this.row, s, label0), this.graph.degree(this.row, s, label1),
+                this.graph.degree(this.row, r, label0), this.graph.degree(this.row, r, label1)};
+    }
+
+    /**
+     * @param type  relation indicator of the neighbours, s-1, r-2, m-3
+     * @param label label of the neighbours
+     * @return number of neighbours of the node with no other neighbour
+     */
+    public int isolated(int type, int label) {
+        return this.isolated[type * 2 + label];
+    }
+
+    // helper function to get the number of wedges of a class, with the relation of nei2 to the node last
+    private int w(int label0, int label1, int t0, int t1, int relation) {
+        return this.wedges[index(label0, label1, t0, t1) + relation];
+    }
+
+    // helper function to find the first counter of the wedges with the given labels and relations
+    static int index(int label0, int label1, int t0, int t1) {
+        return (((label0 * 2 + label1) * 3 + t0 - 1) * 3 + t1 - 1) * 4;
+    }
+
+    // helper function to get the rows of the neighbours of a row, by relation and label
+    private int[][] rows(int row) {
+        int[][] rows = new int[(GraphCSR.ALL + 1) * 2][];
+        for (int type = GraphCSR.SEND; type <= GraphCSR.ALL; type++) {
+            for (int label = 0; label <= 1; label++) {
+                rows[type * 2 + label] = this.graph.neighbours(row, type, label);
+            }
+        }
+        return rows;
+    }
+
+    // helper function to mark, or clear, the relations of the neighbours of a row
+    private void markRow(int row, boolean set) {
+        for (int type = GraphCSR.SEND; type <= GraphCSR.ALL; type++) {
+            int degree = this.graph.degree(row, type);
+            this.hop1 = room(this.hop1, degree);
+            int count = this.graph.neighbours(row, type, 0, this.hop1, 0);
+            this.graph.neighbours(row, type, 1, this.hop1, count);
+            for (int k = 0; k < degree; k++) {
+                if (set) {
+                    this.mark[this.hop1[k]] |= 1 << type;
+                } else {
+                    this.mark[this.hop1[k]] = 0;
+                }
+            }
+        }
+    }
+
+    // helper function to make sure a scratch array has room for [size] elements
+    private static int[] room(int[] array, int size) {
+        return array.length >= size ? array : new int[Math.max(size, array.length * 2)];
+    }
+}
@@ -0,0 +1,60 @@
+package util;
+
+/**
+ * Count-Min sketch of long keys (Cormode and Muthukrishnan 2005)
+ *
+ * Each key is counted in one cell of each of [depth] rows, the estimate is the smallest of these cells,
+ *  so it is never below the true count. In particular an estimate of 0 means the key was never added.
+ *
+ * Usage:
+ *      CountMinSketch cm = new CountMinSketch(4, 1 << 20);
+ *      cm.add(receiver);
+ *      if (cm.estimate(id) == 0) ...
+ */
+public class CountMinSketch {
+    private final int[][] cells;
+    private final int mask;
+
+    /**
+     * @param depth number of rows
+     * @param width number of cells in each row, rounded up to a power of 2
+     */
+    public CountMinSketch(int depth, int width) {
+        int w = 1;
+        while (w < width) w <<= 1;
+        this.cells = new int[depth][w];
+        this.mask = w - 1;
+    }
+
+    /**
+     * Count one item
+     *
+     * @param key the item
+     */
+    public void add(long key) {
+        for (int d = 0; d < this.cells.length; d++) {
+            int cell = index(key, d);
+            // saturate instead of overflowing, the estimate stays an upper bound
+            if (this.cells[d][cell] < Integer.MAX_VALUE) {
+                this.cells[d][cell]++;
+            }
+        }
+    }
+
+    /**
+     * @param key the item
+     * @return upper bound of the number of times the key was added
+     */
+    public int estimate(long key) {
+        int min = Integer.MAX_VALUE;
+        for (int d = 0; d < this.cells.length; d++) {
+            min = Math.min(min, this.cells[d][index(key, d)]);
+        }
+        return min;
+    }
+
+    // helper function to find the cell of a key in row d
+    private int index(long key, int d) {
+        return EdgeCounter.hash(key + (d + 1) * 0x9e3779b97f4a7c15L) & this.mask;
+    }
+}
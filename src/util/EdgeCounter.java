@@ -0,0 +1,149 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Counter of directed edges (from, to) between integer node IDs
+ *
+ * Edges are kept in the order they are first added, in plain arrays, with an open-addressing table on top,
+ *  so that each distinct edge costs a long key, an int count and about two int slots of the table.
+ *
+ * Usage:
+ *      counter.add(sid, rid, 1);
+ *      for (int i = 0; i < counter.size(); i++) { counter.from(i) ... counter.to(i) ... counter.count(i) }
+ *      total.merge(shard);
+ */
+public class EdgeCounter {
+    // edges in order of first appearance
+    private long[] keys;
+    private int[] counts;
+    private int size = 0;
+    // hash table holding (index of edge + 1), 0 as empty
+    private int[] table;
+    private int mask;
+
+    public EdgeCounter() {
+        this(1024);
+    }
+
+    /**
+     * @param expected expected number of distinct edges
+     */
+    public EdgeCounter(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) capacity <<= 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        this.keys = new long[Math.max(expected, 16)];
+        this.counts = new int[Math.max(expected, 16)];
+    }
+
+    // pack an edge into a long
+    public static long key(int from, int to) {
+        return ((long) from << 32) | (to & 0xffffffffL);
+    }
+
+    /**
+     * Add to the count of an edge
+     *
+     * @param from  sender ID
+     * @param to    receiver ID
+     * @param count number of calls to add
+     */
+    public void add(int from, int to, int count) {
+        long key = key(from, to);
+        int slot = slot(key);
+        int index = this.table[slot] - 1;
+        if (index >= 0) {
+            this.counts[index] += count;
+            return;
+        }
+        if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, this.size * 2);
+            this.counts = Arrays.copyOf(this.counts, this.size * 2);
+        }
+        this.keys[this.size] = key;
+        this.counts[this.size] = count;
+        this.size++;
+        this.table[slot] = this.size;
+        if (this.size * 2 > this.table.length) {
+            rehash(this.table.length * 2);
+        }
+    }
+
+    /**
+     * Add all counts of another counter, e.g. a shard counted by another thread.
+     * Edges new to this counter are appended in their order in [other], so merging shards in the order of
+     *  the records keeps the order of first appearance.
+     *
+     * @param other counter to add
+     */
+    public void merge(EdgeCounter other) {
+        for (int i = 0; i < other.size; i++) {
+            long key = other.keys[i];
+            add((int) (key >>> 32), (int) key, other.counts[i]);
+        }
+    }
+
+    /**
+     * @return number of calls from [from] to [to], 0 if never added
+     */
+    public int get(int from, int to) {
+        int index = this.table[slot(key(from, to))] - 1;
+        return index < 0 ? 0 : this.counts[index];
+    }
+
+    // number of distinct edges
+    public int size() {
+        return this.size;
+    }
+
+    // sender of the i-th edge
+    public int from(int i) {
+        return (int) (this.keys[i] >>> 32);
+    }
+
+    // receiver of the i-th edge
+    public int to(int i) {
+        return (int) this.keys[i];
+    }
+
+    // count of the i-th edge
+    public int count(int i) {
+        return this.counts[i];
+    }
+
+    // helper function to find the slot holding the key, or the empty slot it should go to
+    private int slot(long key) {
+        int slot = hash(key) & this.mask;
+        while (true) {
+            int index = this.table[slot] - 1;
+            if (index < 0 || this.keys[index] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < this.size; i++) {
+            int slot = hash(this.keys[i]) & this.mask;
+            while (this.table[slot] != 0) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.table[slot] = i + 1;
+        }
+    }
+
+    // mix the bits of a key (finalizer of MurmurHash3)
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,93 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Exact histogram of non-negative integers (degrees, call frequencies), to get percentiles without keeping or sorting
+ *  the values
+ *
+ * Small values are counted in an array, the few large ones (e.g. call frequencies of outliers) in a hash map.
+ *
+ * Usage:
+ *      IntHistogram indegs = new IntHistogram();
+ *      indegs.add(deg);
+ *      int q = indegs.percentile(0.99);   // same as VectorUtil.percentile on the list of the same values
+ */
+public class IntHistogram {
+    // values below this are counted in the array
+    private static final int DENSE = 1 << 16;
+
+    private int[] counts = new int[256];
+    // counts of values >= DENSE
+    private LongIntHashMap large = new LongIntHashMap(16);
+    private int size = 0;
+
+    /**
+     * @param value non-negative value
+     */
+    public void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value in histogram: " + value);
+        }
+        if (value < DENSE) {
+            if (value >= this.counts.length) {
+                int n = this.counts.length;
+                while (n <= value) n <<= 1;
+                this.counts = Arrays.copyOf(this.counts, n);
+            }
+            this.counts[value]++;
+        } else {
+            int count = this.large.get(value);
+            this.large.put(value, count < 0 ? 1 : count + 1);
+        }
+        this.size++;
+    }
+
+    // number of values added
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Percentile with the same definition as VectorUtil.percentile:
+     *  the m-th smallest value (from 0), m = (int) ((size - 1) * per), at least 1
+     *
+     * @param per percentile
+     * @return the value, Integer.MAX_VALUE if there are less than 2 values
+     */
+    public int percentile(double per) {
+        int n = this.size - 1;
+        if (n <= 0) return (Integer.MAX_VALUE);
+        int m = (int) (n * per);
+        if (m == 0) m++;
+        return value(m);
+    }
+
+    /**
+     * @param rank position from 0 in sorted order
+     * @return the value at that position
+     */
+    public int value(int rank) {
+        int seen = 0;
+        for (int v = 0; v < this.counts.length; v++) {
+            seen += this.counts[v];
+            if (seen > rank) {
+                return v;
+            }
+        }
+        // the rest is among the large values
+        long[] values = new long[this.large.size()];
+        LongIntHashMap.Cursor c = this.large.cursor();
+        for (int i = 0; c.next(); i++) {
+            values[i] = c.key();
+        }
+        Arrays.sort(values);
+        for (long v : values) {
+            seen += this.large.get(v);
+            if (seen > rank) {
+                return (int) v;
+            }
+        }
+        throw new IndexOutOfBoundsException("Rank " + rank + " of " + this.size + " values");
+    }
+}
@@ -0,0 +1,217 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long to int without boxing, used as dictionary from phone number to node index
+ *
+ * Keys and values are kept in plain arrays with open addressing (linear probing),
+ *  removed entries are marked so that removing while iterating does not move other entries.
+ * Values are expected to be non-negative, get() returns -1 for missing keys.
+ *
+ * Usage:
+ *      int id = dict.get(s);
+ *      if (id < 0) dict.put(s, nextindex);
+ *
+ *      LongIntHashMap.Cursor c = dict.cursor();
+ *      while (c.next()) { ... c.key() ... c.value() ... c.remove(); }
+ */
+public class LongIntHashMap {
+    // value returned for missing keys
+    public static final int MISSING = -1;
+
+    // slot states
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REMOVED = 2;
+
+    private long[] keys;
+    private int[] values;
+    private byte[] states;
+    private int mask;
+    private int size = 0;
+    // number of slots not FREE
+    private int used = 0;
+
+    public LongIntHashMap() {
+        this(1024);
+    }
+
+    /**
+     * @param expected expected number of entries
+     */
+    public LongIntHashMap(int expected) {
+        int capacity = 16;
+        while (capacity * 3 < expected * 4) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @param key the key
+     * @return value of the key, or MISSING
+     */
+    public int get(long key) {
+        int slot = find(key);
+        return slot < 0 ? MISSING : this.values[slot];
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Put or replace the value of a key, should not be called while iterating through a cursor
+     *
+     * @param key   the key
+     * @param value non-negative value
+     */
+    public void put(long key, int value) {
+        int slot = EdgeCounter.hash(key) & this.mask;
+        int free = -1;
+        while (this.states[slot] != FREE) {
+            if (this.states[slot] == FULL && this.keys[slot] == key) {
+                this.values[slot] = value;
+                return;
+            }
+            if (this.states[slot] == REMOVED && free < 0) {
+                free = slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        if (free < 0) {
+            free = slot;
+            this.used++;
+        }
+        this.keys[free] = key;
+        this.values[free] = value;
+        this.states[free] = FULL;
+        this.size++;
+        if (this.used * 4 > this.states.length * 3) {
+            // grow if really full, otherwise only clean removed slots
+            rehash(this.size * 2 > this.states.length ? this.states.length * 2 : this.states.length);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @return value of the removed key, or MISSING
+     */
+    public int remove(long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return MISSING;
+        }
+        this.states[slot] = REMOVED;
+        this.size--;
+        return this.values[slot];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(this.states, FREE);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    /**
+     * @return all values, in the order of the table
+     */
+    public int[] values() {
+        int[] out = new int[this.size];
+        int n = 0;
+        for (int i = 0; i < this.states.length; i++) {
+            if (this.states[i] == FULL) {
+                out[n++] = this.values[i];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return a cursor at the position before the first entry
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterator through entries of the map, allowing to remove the current entry
+     */
+    public class Cursor {
+        private int slot = -1;
+
+        /**
+         * @return false if there is no more entry
+         */
+        public boolean next() {
+            while (++this.slot < states.length) {
+                if (states[this.slot] == FULL) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public long key() {
+            return keys[this.slot];
+        }
+
+        public int value() {
+            return values[this.slot];
+        }
+
+        // remove the current entry
+        public void remove() {
+            if (states[this.slot] == FULL) {
+                states[this.slot] = REMOVED;
+                size--;
+            }
+        }
+    }
+
+    // helper function to find the slot of a key, -1 if missing
+    private int find(long key) {
+        int slot = EdgeCounter.hash(key) & this.mask;
+        while (this.states[slot] != FREE) {
+            if (this.states[slot] == FULL && this.keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return -1;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.states = new byte[capacity];
+        this.mask = capacity - 1;
+        this.used = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        byte[] oldStates = this.states;
+        allocate(capacity);
+        for (int i = 0; i < oldStates.length; i++) {
+            if (oldStates[i] == FULL) {
+                int slot = EdgeCounter.hash(oldKeys[i]) & this.mask;
+                while (this.states[slot] != FREE) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+                this.states[slot] = FULL;
+                this.used++;
+            }
+        }
+    }
+}
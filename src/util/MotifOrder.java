@@ -1,7 +1,5 @@
 package util;
 
-import java.util.HashMap;
-
 /**
  * Created by zehangli on 5/3/16.
  */
@@ -31,89 +29,37 @@ public class MotifOrder {
             83,99,117,
             87,120};
 
-    public static HashMap<Integer, Integer> changeOrder(HashMap<Integer, Integer> motif){
-        HashMap<Integer, Integer> newMotif = new HashMap<Integer, Integer>();
-
-        // note the first element in motif is not used in the new motif list,
-        // so everything starts with 1
-        // i.e. the first element in order is 1,
-        // meaning the second element gets mapped to the first element in new list
-        // i.e. motif{<0, 0>, <1, 5>,...}  --> newmotif{<0, 5>, ...}
-        for(int i = 0; i < 120; i++){
-            if(motif.get(order[i]) != null){
-                newMotif.put(i, motif.get(order[i]));
-            }else{
-                newMotif.put(i, 0);
-            }
-        }
-        return(newMotif);
-    }
-
-    public static HashMap<Integer, Double> changeOrderDouble(HashMap<Integer, Double> motif){
-        HashMap<Integer, Double> newMotif = new HashMap<Integer, Double>();
-
-        // note the first element in motif is not used in the new motif list,
-        // so everything starts with 1
-        // i.e. the first element in order is 1,
-        // meaning the second element gets mapped to the first element in new list
-        // i.e. motif{<0, 0>, <1, 5>,...}  --> newmotif{<0, 5>, ...}
-        for(int i = 0; i < 120; i++){
-            if(motif.get(order[i]) != null){
-                newMotif.put(i, motif.get(order[i]));
-            }else{
-                newMotif.put(i, 0.0);
-            }
-        }
-        return(newMotif);
-    }
-
     /**
-     *   Same method when the motif HashMap is a pointer
+     * Put motif counts in the final order
      *
-    **/
-
-    public static void changeOrder2(HashMap<Integer, Integer> motif){
-        HashMap<Integer, Integer> newMotif = new HashMap<Integer, Integer>();
-
-        // note the first element in motif is not used in the new motif list,
-        // so everything starts with 1
-        // i.e. the first element in order is 1,
-        // meaning the second element gets mapped to the first element in new list
-        // i.e. motif{<0, 0>, <1, 5>,...}  --> newmotif{<0, 5>, ...}
-        for(int i = 0; i < 120; i++){
-            if(motif.get(order[i]) != null){
-                newMotif.put(i, motif.get(order[i]));
-            }else{
-                newMotif.put(i, 0);
-            }
-        }
-
-        for(int i = 0; i < 120; i++){
-            motif.put(i, newMotif.get(i));
+     * note the first element in motif is not used in the new motif list,
+     * so everything starts with 1
+     * i.e. the first element in order is 1,
+     * meaning the second element gets mapped to the first element in new list
+     * i.e. motif{0, 5, ...}  --> newmotif{5, ...}
+     *
+     * @param motif motif counts by index, 121 of them
+     * @return the 120 counts in the final order, without the first one
+     */
+    public static int[] changeOrder(int[] motif) {
+        int[] newMotif = new int[120];
+        for (int i = 0; i < 120; i++) {
+            newMotif[i] = motif[order[i]];
         }
-        motif.remove(120);
+        return newMotif;
     }
 
-    public static void changeOrderDouble2(HashMap<Integer, Double> motif){
-        HashMap<Integer, Double> newMotif = new HashMap<Integer, Double>();
-
-        // note the first element in motif is not used in the new motif list,
-        // so everything starts with 1
-        // i.e. the first element in order is 1,
-        // meaning the second element gets mapped to the first element in new list
-        // i.e. motif{<0, 0>, <1, 5>,...}  --> newmotif{<0, 5>, ...}
-        for(int i = 0; i < 120; i++){
-            if(motif.get(order[i]) != null){
-                newMotif.put(i, motif.get(order[i]));
-            }else{
-                newMotif.put(i, 0.0);
-            }
-        }
-
-        for(int i = 0; i < 120; i++){
-            motif.put(i, newMotif.get(i));
+    /**
+     * Same method for sums of motif counts
+     *
+     * @param motif sums of motif counts by index, 121 of them
+     * @return the 120 sums in the final order, without the first one
+     */
+    public static double[] changeOrderDouble(double[] motif) {
+        double[] newMotif = new double[120];
+        for (int i = 0; i < 120; i++) {
+            newMotif[i] = motif[order[i]];
         }
-        motif.remove(120);
+        return newMotif;
     }
-
 }
@@ -0,0 +1,209 @@
+package util;
+
+import java.nio.IntBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable set of integers held in a sorted array
+ *
+ * Used for neighbour lists once they stop changing (after organize or thinFreq), so that they take one int per
+ *  element, membership is a binary search, and intersections and differences are merges of two arrays.
+ *
+ * Usage:
+ *      SortedIntSet s = SortedIntSet.of(sList);
+ *      SortedIntSet m = SortedIntSet.intersection(s, SortedIntSet.of(rList));
+ *      int common = SortedIntSet.countCommon(list, 0, list.length, m.array(), 0, m.size());
+ */
+public class SortedIntSet extends AbstractSet<Integer> {
+    public static final SortedIntSet EMPTY = new SortedIntSet(new int[0]);
+
+    // distinct values in ascending order
+    private final int[] values;
+
+    /**
+     * @param values distinct values in ascending order, not copied
+     */
+    private SortedIntSet(int[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @param set any set of integers
+     * @return the same set, sorted
+     */
+    public static SortedIntSet of(Collection<Integer> set) {
+        if (set instanceof SortedIntSet) {
+            return (SortedIntSet) set;
+        }
+        int[] values = new int[set.size()];
+        int k = 0;
+        for (int x : set) {
+            values[k++] = x;
+        }
+        return of(values);
+    }
+
+    /**
+     * @param values any integers, sorted in place and kept if there are no replicates
+     * @return the set of the values
+     */
+    public static SortedIntSet of(int[] values) {
+        Arrays.sort(values);
+        // remove replicates
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (size == 0 || values[size - 1] != values[i]) {
+                values[size++] = values[i];
+            }
+        }
+        return new SortedIntSet(size == values.length ? values : Arrays.copyOf(values, size));
+    }
+
+    /**
+     * @return elements of both a and b
+     */
+    public static SortedIntSet intersection(Set<Integer> a, Set<Integer> b) {
+        int[] x = of(a).values;
+        int[] y = of(b).values;
+        int[] out = new int[Math.min(x.length, y.length)];
+        int i = 0, j = 0, size = 0;
+        while (i < x.length && j < y.length) {
+            if (x[i] < y[j]) {
+                i++;
+            } else if (x[i] > y[j]) {
+                j++;
+            } else {
+                out[size++] = x[i];
+                i++;
+                j++;
+            }
+        }
+        return new SortedIntSet(size == out.length ? out : Arrays.copyOf(out, size));
+    }
+
+    /**
+     * @return elements of a that are not in b
+     */
+    public static SortedIntSet difference(Set<Integer> a, Set<Integer> b) {
+        int[] x = of(a).values;
+        int[] y = of(b).values;
+        int[] out = new int[x.length];
+        int j = 0, size = 0;
+        for (int i = 0; i < x.length; i++) {
+            while (j < y.length && y[j] < x[i]) {
+                j++;
+            }
+            if (j == y.length || y[j] != x[i]) {
+                out[size++] = x[i];
+            }
+        }
+        return new SortedIntSet(size == out.length ? out : Arrays.copyOf(out, size));
+    }
+
+    /**
+     * Count the elements of a sorted list (with replicates) that are in a sorted array of distinct values
+     *
+     * @return number of elements of a[aFrom, aTo) in b[bFrom, bTo), replicates in a counted each time
+     */
+    public static int countCommon(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        return countCommon(a, aFrom, aTo, IntBuffer.wrap(b), bFrom, bTo);
+    }
+
+    /**
+     * Count the elements of a sorted list (with replicates) that are in a sorted buffer of distinct values,
+     *  by galloping through b when a is much shorter, and by merging otherwise
+     *
+     * @return number of elements of a[aFrom, aTo) in b[bFrom, bTo), replicates in a counted each time
+     */
+    public static int countCommon(int[] a, int aFrom, int aTo, IntBuffer b, int bFrom, int bTo) {
+        int count = 0;
+        if ((long) (aTo - aFrom) * 8 < bTo - bFrom) {
+            int j = bFrom;
+            for (int i = aFrom; i < aTo && j < bTo; i++) {
+                j = gallop(b, j, bTo, a[i]);
+                if (j < bTo && b.get(j) == a[i]) count++;
+            }
+        } else {
+            int j = bFrom;
+            for (int i = aFrom; i < aTo; i++) {
+                while (j < bTo && b.get(j) < a[i]) {
+                    j++;
+                }
+                if (j == bTo) break;
+                if (b.get(j) == a[i]) count++;
+            }
+        }
+        return count;
+    }
+
+    // helper function to find the first position in [from, to) with a value not below key, by exponential search
+    private static int gallop(IntBuffer b, int from, int to, int key) {
+        int step = 1;
+        int lo = from;
+        int hi = from;
+        while (hi < to && b.get(hi) < key) {
+            lo = hi + 1;
+            hi = from + step;
+            step <<= 1;
+        }
+        hi = Math.min(hi, to);
+        // b[lo - 1] < key <= b[hi] if hi < to
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (b.get(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // the sorted values, not to be modified
+    public int[] array() {
+        return this.values;
+    }
+
+    // i-th smallest value
+    public int get(int i) {
+        return this.values[i];
+    }
+
+    public int size() {
+        return this.values.length;
+    }
+
+    public boolean contains(Object o) {
+        return o instanceof Integer && Arrays.binarySearch(this.values, (Integer) o) >= 0;
+    }
+
+    public boolean contains(int x) {
+        return Arrays.binarySearch(this.values, x) >= 0;
+    }
+
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return this.next < values.length;
+            }
+
+            public Integer next() {
+                if (this.next >= values.length) {
+                    throw new NoSuchElementException();
+                }
+                return values[this.next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("SortedIntSet is immutable");
+            }
+        };
+    }
+}
@@ -0,0 +1,122 @@
+package util;
+
+/**
+ * Space-Saving summary of the most frequent long keys in a stream (Metwally et al. 2005)
+ *
+ * At most [capacity] keys are counted. When a new key comes and the summary is full, it replaces the key with the
+ *  smallest count and inherits that count as its error, so for every key in the summary:
+ *      count - error <= true count <= count
+ *  and every key with true count above (number of items / capacity) is in the summary.
+ *
+ * Usage:
+ *      SpaceSaving top = new SpaceSaving(1000);
+ *      top.add(sender);
+ *      for (int i = 0; i < top.size(); i++) { if (top.lowerBound(i) > thre) ... top.key(i) ... }
+ */
+public class SpaceSaving {
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    // min-heap of slots by count, and position of each slot in the heap
+    private final int[] heap;
+    private final int[] position;
+    private final LongIntHashMap slots;
+    private int size = 0;
+
+    /**
+     * @param capacity maximum number of keys counted
+     */
+    public SpaceSaving(int capacity) {
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.slots = new LongIntHashMap(capacity);
+    }
+
+    /**
+     * Count one item
+     *
+     * @param key the item
+     */
+    public void add(long key) {
+        int slot = this.slots.get(key);
+        if (slot < 0) {
+            if (this.size < this.keys.length) {
+                slot = this.size;
+                this.heap[slot] = slot;
+                this.position[slot] = slot;
+                this.size++;
+                this.counts[slot] = 0;
+                this.errors[slot] = 0;
+            } else {
+                // replace the key with the smallest count
+                slot = this.heap[0];
+                this.slots.remove(this.keys[slot]);
+                this.errors[slot] = this.counts[slot];
+            }
+            this.keys[slot] = key;
+            this.slots.put(key, slot);
+            siftUp(this.position[slot]);
+        }
+        this.counts[slot]++;
+        siftDown(this.position[slot]);
+    }
+
+    // number of keys in the summary
+    public int size() {
+        return this.size;
+    }
+
+    // key of the i-th slot
+    public long key(int i) {
+        return this.keys[i];
+    }
+
+    // upper bound of the count of the i-th slot
+    public long count(int i) {
+        return this.counts[i];
+    }
+
+    // lower bound of the count of the i-th slot
+    public long lowerBound(int i) {
+        return this.counts[i] - this.errors[i];
+    }
+
+    private void siftUp(int p) {
+        while (p > 0) {
+            int parent = (p - 1) / 2;
+            if (this.counts[this.heap[parent]] <= this.counts[this.heap[p]]) {
+                break;
+            }
+            swap(p, parent);
+            p = parent;
+        }
+    }
+
+    private void siftDown(int p) {
+        while (true) {
+            int child = 2 * p + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && this.counts[this.heap[child + 1]] < this.counts[this.heap[child]]) {
+                child++;
+            }
+            if (this.counts[this.heap[p]] <= this.counts[this.heap[child]]) {
+                break;
+            }
+            swap(p, child);
+            p = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int t = this.heap[a];
+        this.heap[a] = this.heap[b];
+        this.heap[b] = t;
+        this.position[this.heap[a]] = a;
+        this.position[this.heap[b]] = b;
+    }
+}
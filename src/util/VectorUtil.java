@@ -100,6 +100,17 @@ public class VectorUtil {
         return (arr.get(m));
     }
 
+    /**
+     * Calculate percentile from a histogram of integers, same as percentile on the list of the same values
+     *
+     * @param hist histogram
+     * @param per percentile
+     * @return
+     */
+    public static int percentile(IntHistogram hist, double per) {
+        return hist.percentile(per);
+    }
+
     /**
      * Union two Long ArrayLists
      *